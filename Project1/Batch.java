@@ -0,0 +1,380 @@
+/* Batch.java */
+
+/**
+ *  The Batch class is a program that runs Sobel edge detection over many
+ *  TIFF images without displaying anything.  Each image is read, optionally
+ *  blurred, edge-detected, run-length encoded, and written as a compressed
+ *  TIFF file, like "java Sobel imagefile iterations RLE" minus the window.
+ *
+ *  The steps run as a pipeline of four stages (reading, blurring with edge
+ *  detection, encoding, and writing), each with its own worker threads,
+ *  joined by bounded queues.  While one image is being written the next can
+ *  be edge-detected and the one after that read, and several images can be
+ *  in the same stage at once.  Since the blurred image itself is not wanted,
+ *  blurring and edge detection are done together by PixImage.blurredEdges(),
+ *  which never holds the whole blurred image.  When a stage falls behind, the
+ *  queue in front of it fills and the stages upstream block until it catches
+ *  up, so no more than a few images per worker are ever held in memory,
+ *  however many files there are.
+ *
+ *  The Batch program takes options followed by any number of TIFF files or
+ *  directories; every .tif or .tiff file in a directory is processed.  The
+ *  options are
+ *
+ *         -b iterations   the number of blurring iterations (default 0)
+ *         -t threads      the number of worker threads per stage (default 2)
+ *         -o directory    where to write the output (default: next to each
+ *                         input file)
+ *
+ *  The output file is named by adding "edge_" to the beginning of the input
+ *  filename.  For example, if you run
+ *
+ *         java Batch -b 2 -o out images
+ *
+ *  then Batch will blur every TIFF image in the directory images twice,
+ *  perform Sobel edge detection, and write the run-length encoded
+ *  grayscale-edge images to out/edge_*.tiff.  An image that cannot be read
+ *  is reported and skipped; the rest are still processed.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Batch {
+
+  /**
+   *  A Job carries one image through the pipeline.  Each stage replaces the
+   *  image with its result.
+   */
+  private static class Job {
+    final File input;
+    final File output;
+    PixImage image;
+    RunLengthEncoding rle;
+
+    Job(File input, File output) {
+      this.input = input;
+      this.output = output;
+    }
+  }
+
+  // Passed down the pipeline after the last job to shut the stages down.
+  private static final Job POISON = new Job(null, null);
+
+  /**
+   *  A Stage takes jobs from its input queue, processes them on a number of
+   *  worker threads, and passes them to its output queue.  When a worker
+   *  takes the poison pill it puts it back for the other workers of the
+   *  stage and stops; the last worker to stop passes it on.
+   */
+  private abstract static class Stage implements Runnable {
+    private final String name;
+    private final BlockingQueue<Job> input;
+    private final BlockingQueue<Job> output;  // null for the last stage
+    private final AtomicInteger running;
+    private final AtomicInteger failures;
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    Stage(String name, BlockingQueue<Job> input, BlockingQueue<Job> output,
+          AtomicInteger failures) {
+      this.name = name;
+      this.input = input;
+      this.output = output;
+      this.failures = failures;
+      running = new AtomicInteger();
+    }
+
+    /** process() does this stage's work on a job. */
+    abstract void process(Job job) throws IOException;
+
+    /** start() starts the specified number of worker threads. */
+    void start(int threads) {
+      running.set(threads);
+      for (int i = 0; i < threads; i++) {
+        Thread worker = new Thread(this, name + "-" + i);
+        workers.add(worker);
+        worker.start();
+      }
+    }
+
+    /** join() waits until every worker thread has stopped. */
+    void join() throws InterruptedException {
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    }
+
+    public void run() {
+      boolean poisoned = false;
+      try {
+        while (true) {
+          Job job = input.take();
+          if (job == POISON) {
+            input.put(POISON);
+            poisoned = true;
+            return;
+          }
+          try {
+            process(job);
+          } catch (RuntimeException | IOException e) {
+            // JAI reports unreadable files with unchecked exceptions, and a
+            // file that cannot be written with an IOException.
+            System.err.println("Skipping " + job.input + ":  " + name +
+                               " failed:  " + e);
+            failures.incrementAndGet();
+            continue;
+          }
+          if (output != null) {
+            output.put(job);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        // However the worker stops, even on an Error, the last one out
+        // passes the poison pill on so that the stages downstream stop and
+        // join() returns.  If the stage died before seeing the pill, its
+        // remaining jobs are skipped so the stage upstream doesn't block.
+        if (running.decrementAndGet() == 0) {
+          if (!poisoned) {
+            skipRemaining();
+          }
+          if (output != null) {
+            putUninterruptibly(output, POISON);
+          }
+        }
+      }
+    }
+
+    /**
+     *  skipRemaining() takes and counts as failed every job left in the
+     *  input queue, up to the poison pill.
+     */
+    private void skipRemaining() {
+      while (true) {
+        Job job = takeUninterruptibly(input);
+        if (job == POISON) {
+          putUninterruptibly(input, POISON);
+          return;
+        }
+        System.err.println("Skipping " + job.input + ":  " + name +
+                           " stopped");
+        failures.incrementAndGet();
+      }
+    }
+  }
+
+  // Blocking queue operations that finish even if the thread is interrupted,
+  // restoring the interrupt afterward.
+
+  private static Job takeUninterruptibly(BlockingQueue<Job> queue) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void putUninterruptibly(BlockingQueue<Job> queue, Job job) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          queue.put(job);
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   *  listImages() expands the command-line file and directory names into
+   *  a list of TIFF files.  Earlier output files (those starting with
+   *  "edge_") found in a directory are skipped.
+   *
+   *  @param names the names of files and directories.
+   *  @return the TIFF files to process.
+   */
+  private static List<File> listImages(List<String> names) {
+    List<File> images = new ArrayList<File>();
+    for (String name : names) {
+      File file = new File(name);
+      if (file.isDirectory()) {
+        File[] files = file.listFiles();
+        if (files == null) {
+          System.err.println("Cannot list directory " + file);
+          continue;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+          String lower = f.getName().toLowerCase();
+          if (f.isFile() && !lower.startsWith("edge_") &&
+              (lower.endsWith(".tif") || lower.endsWith(".tiff"))) {
+            images.add(f);
+          }
+        }
+      } else {
+        images.add(file);
+      }
+    }
+    return images;
+  }
+
+  /**
+   *  runPipeline() runs every image through the pipeline and waits until all
+   *  of them have been written or skipped.
+   *
+   *  @param images the TIFF files to process.
+   *  @param outputDir the directory to write to, or null to write next to
+   *  each input file.
+   *  @param numIterations the number of iterations of blurring to perform.
+   *  @param threads the number of worker threads per stage.
+   *  @return the number of images that were skipped because of an error.
+   */
+  private static int runPipeline(List<File> images, File outputDir,
+                                 final int numIterations, int threads)
+                                throws InterruptedException {
+    AtomicInteger failures = new AtomicInteger();
+    // Every queue holds at most one waiting job per worker of the stage it
+    // feeds; that bound is what provides back-pressure.
+    BlockingQueue<Job> toRead = new ArrayBlockingQueue<Job>(threads);
+    BlockingQueue<Job> toSobel = new ArrayBlockingQueue<Job>(threads);
+    BlockingQueue<Job> toEncode = new ArrayBlockingQueue<Job>(threads);
+    BlockingQueue<Job> toWrite = new ArrayBlockingQueue<Job>(threads);
+
+    Stage[] stages = {
+      new Stage("read", toRead, toSobel, failures) {
+        void process(Job job) {
+          job.image = ImageUtils.readTIFFPix(job.input.getPath());
+        }
+      },
+      new Stage("sobel", toSobel, toEncode, failures) {
+        void process(Job job) {
+          job.image = job.image.blurredEdges(numIterations);
+        }
+      },
+      new Stage("encode", toEncode, toWrite, failures) {
+        void process(Job job) {
+          job.rle = new RunLengthEncoding(job.image);
+          job.image = null;
+        }
+      },
+      new Stage("write", toWrite, null, failures) {
+        void process(Job job) throws IOException {
+          TIFFEncoder.writeTIFFOrThrow(job.rle, job.output.getPath());
+          System.out.println("Wrote " + job.output);
+        }
+      }
+    };
+    for (Stage stage : stages) {
+      stage.start(threads);
+    }
+
+    // Blocks whenever the pipeline is full.
+    for (File image : images) {
+      File dir = outputDir != null ? outputDir : image.getAbsoluteFile()
+                                                      .getParentFile();
+      toRead.put(new Job(image, new File(dir, "edge_" + image.getName())));
+    }
+    toRead.put(POISON);
+
+    for (Stage stage : stages) {
+      stage.join();
+    }
+    return failures.get();
+  }
+
+  /**
+   *  usage() prints a usage message and exits.
+   */
+  private static void usage() {
+    System.out.println("usage:  java Batch [-b iterations] [-t threads] " +
+                       "[-o directory] file-or-directory ...");
+    System.out.println("  -b is the number of blurring iterations " +
+                       "(default 0).");
+    System.out.println("  -t is the number of worker threads per stage " +
+                       "(default 2).");
+    System.out.println("  -o is the directory to write to (default: the " +
+                       "input file's directory).");
+    System.out.println("Each TIFF image is edge-detected and written, " +
+                       "run-length encoded, to edge_imagefile.");
+    System.exit(0);
+  }
+
+  /**
+   *  main() reads the command-line arguments and runs the pipeline.
+   *
+   *  @param args the usual array of command-line argument Strings.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int numIterations = 0;
+    int threads = 2;
+    File outputDir = null;
+    List<String> names = new ArrayList<String>();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-b") || args[i].equals("-t")) {
+        if (i + 1 == args.length) {
+          usage();
+        }
+        try {
+          int value = Integer.parseInt(args[++i]);
+          if (args[i - 1].equals("-b")) {
+            numIterations = value;
+          } else {
+            threads = Math.max(1, value);
+          }
+        } catch (NumberFormatException ex) {
+          System.err.println("The argument of " + args[i - 1] +
+                             " must be a number.");
+          System.exit(1);
+        }
+      } else if (args[i].equals("-o")) {
+        if (i + 1 == args.length) {
+          usage();
+        }
+        outputDir = new File(args[++i]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+          System.err.println("Cannot create directory " + outputDir);
+          System.exit(1);
+        }
+      } else {
+        names.add(args[i]);
+      }
+    }
+    if (names.isEmpty()) {
+      usage();
+    }
+
+    List<File> images = listImages(names);
+    long start = System.currentTimeMillis();
+    int failures = runPipeline(images, outputDir, numIterations, threads);
+    System.out.println("Processed " + (images.size() - failures) + " of " +
+                       images.size() + " images in " +
+                       (System.currentTimeMillis() - start) + " ms.");
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -16,10 +16,14 @@
  *  @author Joel Galenson
  **/
 
-import java.awt.Color;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
 
 import javax.media.jai.JAI;
 import javax.media.jai.RenderedImageAdapter;
@@ -32,7 +36,8 @@ import javax.swing.JLabel;
  *  ImageUtils contains utilities for reading, writing, and displaying images.
  * 
  *  It uses JAI to read and write TIFF files, as the standard libraries cannot
- *  read them.
+ *  read them.  Files in the subset of TIFF that TIFFEncoder writes are read
+ *  by TIFFDecoder instead, which maps the file and skips JAI entirely.
  * 
  *  All image data is in RGB format (see BufferedImage.getRGB).
  */
@@ -44,13 +49,13 @@ public class ImageUtils {
    *  @return a PixImage with the same pixels as the BufferedImage.
    */
   private static PixImage buffer2PixImage(BufferedImage bImage) {
-    PixImage pImage = new PixImage(bImage.getWidth(), bImage.getHeight());
-    for (int x = 0; x < bImage.getWidth(); x++) {
-      for (int y = 0; y < bImage.getHeight(); y++) {
-        Color color = new Color(bImage.getRGB(x, y));
-        pImage.setPixel(x, y, (short) color.getRed(), (short) color.getGreen(),
-                        (short) color.getBlue());
-      }
+    int width = bImage.getWidth();
+    PixImage pImage = new PixImage(width, bImage.getHeight());
+    // Convert a row at a time; getRGB() handles any color model for us.
+    int[] row = new int[width];
+    for (int y = 0; y < bImage.getHeight(); y++) {
+      bImage.getRGB(0, y, width, 1, row, 0, width);
+      pImage.setRGBRow(y, row, 0);
     }
     return pImage;
   }
@@ -64,12 +69,12 @@ public class ImageUtils {
     BufferedImage bImage = new BufferedImage(pImage.getWidth(),
                                              pImage.getHeight(),
                                              BufferedImage.TYPE_INT_ARGB);
-    for (int x = 0; x < bImage.getWidth(); x++) {
-      for (int y = 0; y < bImage.getHeight(); y++) {
-        bImage.setRGB(x, y, new Color(pImage.getRed(x, y),
-                                      pImage.getGreen(x, y),
-                                      pImage.getBlue(x, y)).getRGB());
-      }
+    // A TYPE_INT_ARGB image keeps its pixels in one row-major int array in
+    // exactly the format getRGBRow() writes, so fill that array directly.
+    int[] data =
+      ((DataBufferInt) bImage.getRaster().getDataBuffer()).getData();
+    for (int y = 0; y < pImage.getHeight(); y++) {
+      pImage.getRGBRow(y, data, y * pImage.getWidth());
     }
     return bImage;
   }
@@ -90,6 +95,14 @@ public class ImageUtils {
    *  @return a PixImage of the file
    */
   public static PixImage readTIFFPix(String filename) {
+    try {
+      PixImage image = TIFFDecoder.readTIFFPix(filename);
+      if (image != null) {
+        return image;
+      }
+    } catch (IOException e) {
+      // Let JAI try; it reports the error if it can't read the file either.
+    }
     return buffer2PixImage(readTIFF(filename));
   }
 
@@ -100,7 +113,35 @@ public class ImageUtils {
    *  @return a RunLengthEncoding of the file.
    */
   public static RunLengthEncoding readTIFFRLE(String filename) {
-    return new RunLengthEncoding(readTIFFPix(filename));
+    try {
+      RunLengthEncoding rle = TIFFDecoder.readTIFFRLE(filename);
+      if (rle != null) {
+        return rle;
+      }
+    } catch (IOException e) {
+      // Let JAI try; it reports the error if it can't read the file either.
+    }
+
+    // Decode the file one row at a time into a one-row BufferedImage that
+    // shares the file's color model, and feed each row to the encoder, so no
+    // full-size image is ever built.
+    RenderedImage image = JAI.create("fileload", filename);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ColorModel model = image.getColorModel();
+    WritableRaster row = model.createCompatibleWritableRaster(width, 1);
+    BufferedImage rowImage =
+      new BufferedImage(model, row, model.isAlphaPremultiplied(), null);
+    int[] rgb = new int[width];
+
+    RunLengthEncoder encoder = new RunLengthEncoder(width, height);
+    for (int y = 0; y < height; y++) {
+      image.copyData(row.createWritableTranslatedChild(image.getMinX(),
+                                                       image.getMinY() + y));
+      rowImage.getRGB(0, 0, width, 1, rgb, 0, width);
+      encoder.appendRow(rgb, 0);
+    }
+    return encoder.finish();
   }
 
   /**
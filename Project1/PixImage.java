@@ -15,16 +15,40 @@
  *  See the README file accompanying this project for additional details.
  */
 
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class PixImage {
 
 	/**
 	 *  Define any variables associated with a PixImage object here.  These
 	 *  variables MUST be private.
 	 */
-	private short[][][] image;
+	// Pixels are packed in row-major order, three bytes (red, green, blue) per
+	// pixel, so pixel (x, y) starts at index 3 * (y * width + x).  Intensities
+	// are stored unsigned; read them back with "& 0xFF".
+	private final byte[] pixels;
 	private final int width;
 	private final int height;
 
+	// bands of rows smaller than this are not worth handing to another thread
+	private static final int MIN_BAND_ROWS = 16;
+
+	// 3x3 kernels for convolveRow(), listed row by row from the upper left
+	// neighbor.  The Sobel kernels are the xkernel and ykernel of the Sobel
+	// operator, already flipped for convolution.
+	private static final int[] BOX_KERNEL = { 1, 1, 1, 1, 1, 1, 1, 1, 1 };
+	private static final int[] SOBEL_X_KERNEL = { -1, -2, -1, 0, 0, 0, 1, 2, 1 };
+	private static final int[] SOBEL_Y_KERNEL = { -1, 0, 1, -2, 0, 2, -1, 0, 1 };
+
+	// energies at which mag2gray() steps up to the next intensity
+	private static final long[] GRAY_THRESHOLDS = grayThresholds();
+
+	// the Vector API version of convolveRow()'s interior loop, or null to run
+	// the loop here; see RowConvolver.  Not final so main() can compare both.
+	private static RowConvolver vectorConvolver = RowConvolver.load();
 
 	/**
 	 * PixImage() constructs an empty PixImage with a specified width and height.
@@ -32,12 +56,19 @@ public class PixImage {
 	 *
 	 * @param width the width of the image.
 	 * @param height the height of the image.
+	 * @throws IllegalArgumentException if the image has too many pixels for
+	 * one array of red, green, and blue bytes (about 715 million).
 	 */
 	public PixImage(int width, int height) {
 		// Your solution here.
+		long size = 3L * width * height;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("a " + width + "x" + height +
+																				 " image is too large for a PixImage");
+		}
 		this.width = width;
 		this.height = height;
-		image = new short[width][height][3];
+		pixels = new byte[(int) size];
 	}
 
 	/**
@@ -69,7 +100,7 @@ public class PixImage {
 	 */
 	public short getRed(int x, int y) {
 		// Replace the following line with your solution.
-		return image[x][y][0];
+		return (short) (pixels[3 * (y * width + x)] & 0xFF);
 	}
 
 	/**
@@ -81,7 +112,7 @@ public class PixImage {
 	 */
 	public short getGreen(int x, int y) {
 		// Replace the following line with your solution.
-		return image[x][y][1];
+		return (short) (pixels[3 * (y * width + x) + 1] & 0xFF);
 	}
 
 	/**
@@ -93,7 +124,7 @@ public class PixImage {
 	 */
 	public short getBlue(int x, int y) {
 		// Replace the following line with your solution.
-		return image[x][y][2];
+		return (short) (pixels[3 * (y * width + x) + 2] & 0xFF);
 	}
 
 	/**
@@ -111,13 +142,105 @@ public class PixImage {
 	 */
 	public void setPixel(int x, int y, short red, short green, short blue) {
 		// Your solution here.
-		if (x >= 0 && x <= width && y >= 0 && y <= width &&
+		if (x >= 0 && x < width && y >= 0 && y < height &&
+				red >= 0    && red <= 255 &&
+				green >= 0  && green <= 255 &&
+				blue >= 0   && blue <= 255) {
+			int i = 3 * (y * width + x);
+			pixels[i] = (byte) red;
+			pixels[i + 1] = (byte) green;
+			pixels[i + 2] = (byte) blue;
+		}
+	}
+
+	/**
+	 * fillSpan() sets a horizontal span of pixels, starting at coordinate
+	 * (x, y) and extending length pixels to the right, to the specified red,
+	 * green, and blue intensities.  The arguments are validated once for the
+	 * whole span, so this is much faster than calling setPixel() on each pixel.
+	 *
+	 * If the span does not lie entirely within row y, or any of the three
+	 * color intensities is NOT in the range 0...255, then this method does NOT
+	 * change any of the pixel intensities.
+	 *
+	 * @param x the x-coordinate of the first pixel of the span.
+	 * @param y the y-coordinate of the row containing the span.
+	 * @param length the number of pixels in the span.
+	 * @param red the new red intensity for the pixels of the span.
+	 * @param green the new green intensity for the pixels of the span.
+	 * @param blue the new blue intensity for the pixels of the span.
+	 */
+	public void fillSpan(int x, int y, int length,
+											 short red, short green, short blue) {
+		if (x >= 0 && length >= 0 && x <= width - length && y >= 0 && y < height &&
 				red >= 0    && red <= 255 &&
 				green >= 0  && green <= 255 &&
 				blue >= 0   && blue <= 255) {
-			image[x][y][0] = red;
-			image[x][y][1] = green;
-			image[x][y][2] = blue;
+			int end = 3 * (y * width + x + length);
+			for (int i = 3 * (y * width + x); i < end; i += 3) {
+				pixels[i] = (byte) red;
+				pixels[i + 1] = (byte) green;
+				pixels[i + 2] = (byte) blue;
+			}
+		}
+	}
+
+	/**
+	 * getRGBRow() copies row y into an array of ints in the format of
+	 * java.awt.Color.getRGB():  opaque alpha in bits 24-31, red in bits 16-23,
+	 * green in bits 8-15, and blue in bits 0-7.
+	 *
+	 * @param y the y-coordinate of the row.
+	 * @param argb the array that receives width values.
+	 * @param offset the index in argb that receives pixel (0, y).
+	 */
+	void getRGBRow(int y, int[] argb, int offset) {
+		int i = 3 * y * width;
+		for (int x = 0; x < width; x++, i += 3) {
+			argb[offset + x] = 0xFF000000 | ((pixels[i] & 0xFF) << 16) |
+												 ((pixels[i + 1] & 0xFF) << 8) | (pixels[i + 2] & 0xFF);
+		}
+	}
+
+	/**
+	 * getRow() copies row y as red, green, and blue bytes, three per pixel from
+	 * left to right, which is also the layout of an uncompressed TIFF scanline.
+	 *
+	 * @param y the y-coordinate of the row.
+	 * @param dst the array that receives width * 3 bytes.
+	 * @param offset the index in dst that receives the red byte of (0, y).
+	 */
+	void getRow(int y, byte[] dst, int offset) {
+		System.arraycopy(pixels, 3 * y * width, dst, offset, 3 * width);
+	}
+
+	/**
+	 * setRow() sets every pixel of row y from bytes in the format written by
+	 * getRow().
+	 *
+	 * @param y the y-coordinate of the row.
+	 * @param src the array holding width * 3 bytes.
+	 * @param offset the index in src of the red byte of (0, y).
+	 */
+	void setRow(int y, byte[] src, int offset) {
+		System.arraycopy(src, offset, pixels, 3 * y * width, 3 * width);
+	}
+
+	/**
+	 * setRGBRow() sets every pixel of row y from an array of ints in the
+	 * format written by getRGBRow().  The alpha bits are ignored.
+	 *
+	 * @param y the y-coordinate of the row.
+	 * @param rgb the array holding width values.
+	 * @param offset the index in rgb of the value for pixel (0, y).
+	 */
+	void setRGBRow(int y, int[] rgb, int offset) {
+		int i = 3 * y * width;
+		for (int x = 0; x < width; x++, i += 3) {
+			int color = rgb[offset + x];
+			pixels[i] = (byte) (color >> 16);
+			pixels[i + 1] = (byte) (color >> 8);
+			pixels[i + 2] = (byte) color;
 		}
 	}
 
@@ -171,124 +294,226 @@ public class PixImage {
 	 * @param numIterations the number of iterations of box blurring.
 	 * @return a blurred version of "this" PixImage.
 	 */
-  public PixImage boxBlur(int numIterations) {
+	public PixImage boxBlur(int numIterations) {
 		// Replace the following line with your solution.
 		if (numIterations <= 0) {
 			return this;
 		}
 		PixImage blurred = new PixImage(width, height);
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-					short[] average = calculateAverage(x, y);
-					blurred.setPixel(x, y, average[0], average[1], average[2]);
+		if (width == 0 || height == 0) {
+			return blurred;  // no pixels to blur
+		}
+
+		// Iterations ping-pong between two buffers.  The source of the first
+		// pass is "this" image, which is only read, and the buffers are chosen
+		// so that the last pass writes into the output image.
+		byte[] spare = numIterations > 1 ? new byte[pixels.length] : null;
+		int[] sums = new int[width * 3];
+		byte[] zeros = new byte[width * 3];
+		byte[] src = pixels;
+		for (int i = numIterations - 1; i >= 0; i--) {
+			byte[] dst = (i % 2 == 0) ? blurred.pixels : spare;
+			blurPass(src, dst, sums, zeros);
+			src = dst;
+		}
+		return blurred;
+	}
+
+	// blurs src into dst once.  sums receives the neighborhood sums of one row
+	// at a time; zeros stands in for the missing rows above the top and below
+	// the bottom, so they add nothing to the sums.
+	private void blurPass(byte[] src, byte[] dst, int[] sums, byte[] zeros) {
+		int stride = width * 3;
+		for (int y = 0; y < height; y++) {
+			int out = y * stride;
+			blurRow(y > 0 ? src : zeros, y > 0 ? out - stride : 0, src, out,
+							y + 1 < height ? src : zeros, y + 1 < height ? out + stride : 0,
+							y, dst, out, sums);
+		}
+	}
+
+	// blurs row y once, given the rows above, at, and below it as for
+	// convolveRow() (rows of zeros beyond the top and bottom), and writes the
+	// result to dst starting at index out
+	private void blurRow(byte[] above, int aOff, byte[] mid, int mOff,
+											 byte[] below, int bOff, int y,
+											 byte[] dst, int out, int[] sums) {
+		if (width == 0) {
+			return;
+		}
+		int last = width * 3 - 3;  // index of the first sample of the last column
+		int cols = Math.min(width, 2);  // neighbors in a border column
+		convolveRow(above, aOff, mid, mOff, below, bOff, width,
+								BOX_KERNEL, false, sums);
+		int rows = 1 + (y > 0 ? 1 : 0) + (y + 1 < height ? 1 : 0);
+
+		// interior columns have three neighbors in each row
+		int divisor = rows * 3;
+		for (int i = 3; i < last; i++) {
+			dst[out + i] = (byte) (sums[i] / divisor);
+		}
+		// first and last columns
+		divisor = rows * cols;
+		for (int c = 0; c < 3; c++) {
+			dst[out + c] = (byte) (sums[c] / divisor);
+			dst[out + last + c] = (byte) (sums[last + c] / divisor);
+		}
+	}
+
+	/**
+	 * convolve() applies an arbitrary 3x3 kernel to "this" image, such as
+	 * a sharpening or Gaussian kernel.  Each output intensity is the weighted
+	 * sum of the 3x3 neighborhood of the input pixel, divided by divisor
+	 * (rounding toward zero) and then clamped to the range 0...255.  Neighbors
+	 * that fall outside the image are reflected back across the boundary, as
+	 * in sobelEdges().  Each color is convolved separately.
+	 *
+	 * @param kernel nine weights listed row by row, starting with the weight of
+	 * the upper left neighbor (x - 1, y - 1) and ending with the weight of the
+	 * lower right neighbor (x + 1, y + 1).
+	 * @param divisor the positive number that every weighted sum is divided by.
+	 * @return a new PixImage holding the convolved image.
+	 */
+	public PixImage convolve(int[] kernel, int divisor) {
+		if (kernel.length != 9 || divisor <= 0) {
+			throw new IllegalArgumentException("need 9 weights and a positive divisor");
+		}
+		PixImage result = new PixImage(width, height);
+		int stride = width * 3;
+		int[] sums = new int[stride];
+		for (int y = 0; y < height; y++) {
+			int out = y * stride;
+			convolveRow(pixels, y > 0 ? out - stride : out, pixels, out,
+									pixels, y + 1 < height ? out + stride : out,
+									width, kernel, true, sums);
+			for (int i = 0; i < stride; i++) {
+				result.pixels[out + i] = (byte) Math.max(0, Math.min(255, sums[i] / divisor));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * convolveRow() is the 3x3 convolution core shared by boxBlur(),
+	 * sobelEdges(), and convolve().  It computes one output row of weighted
+	 * neighborhood sums for an image stored in the packed layout of "pixels".
+	 *
+	 * The rows above, at, and below the output row start at offsets aOff,
+	 * mOff, and bOff of the arrays above, mid, and below.  At the top or bottom
+	 * of an image the caller supplies the missing row itself:  the middle row
+	 * again to reflect the border, or a row of zeros to leave those neighbors
+	 * out.  Missing columns are handled here:  if clampEdges is true the
+	 * border column is reflected, otherwise it contributes nothing.
+	 *
+	 * Every column except the first and last is computed by a single loop with
+	 * no bounds tests, which the JIT compiler can unroll and vectorize, or by
+	 * the Vector API if vectorConvolver is loaded; only the two border columns
+	 * take the slower path.
+	 *
+	 * @param kernel nine weights in the order described for convolve().
+	 * @param sums receives width * 3 sums, one per sample of the row.
+	 */
+	private static void convolveRow(byte[] above, int aOff, byte[] mid, int mOff,
+																	byte[] below, int bOff, int width,
+																	int[] kernel, boolean clampEdges, int[] sums) {
+		int k0 = kernel[0], k1 = kernel[1], k2 = kernel[2];
+		int k3 = kernel[3], k4 = kernel[4], k5 = kernel[5];
+		int k6 = kernel[6], k7 = kernel[7], k8 = kernel[8];
+		if (width == 0) {
+			return;  // a row with no samples has no sums
+		}
+		int last = width * 3 - 3;
+
+		RowConvolver vector = vectorConvolver;
+		if (vector != null) {
+			vector.convolveInterior(above, aOff, mid, mOff, below, bOff, last,
+															kernel, sums);
+		} else {
+			for (int i = 3; i < last; i++) {
+				sums[i] =
+					k0 * (above[aOff + i - 3] & 0xFF) + k1 * (above[aOff + i] & 0xFF) +
+					k2 * (above[aOff + i + 3] & 0xFF) +
+					k3 * (mid[mOff + i - 3] & 0xFF)   + k4 * (mid[mOff + i] & 0xFF) +
+					k5 * (mid[mOff + i + 3] & 0xFF) +
+					k6 * (below[bOff + i - 3] & 0xFF) + k7 * (below[bOff + i] & 0xFF) +
+					k8 * (below[bOff + i + 3] & 0xFF);
+			}
+		}
+
+		// border columns:  a neighbor index of -1 means "contributes zero"
+		for (int c = 0; c < 3; c++) {
+			int right = width > 1 ? c + 3 : (clampEdges ? c : -1);
+			sums[c] = borderSum(above, aOff, mid, mOff, below, bOff, kernel,
+													clampEdges ? c : -1, c, right);
+			if (width > 1) {
+				int i = last + c;
+				sums[i] = borderSum(above, aOff, mid, mOff, below, bOff, kernel,
+														i - 3, i, clampEdges ? i : -1);
 			}
 		}
-		numIterations--;
-		return blurred.boxBlur(numIterations);
-	}
-
-	// returns the average of neighboring pixels at x, y
-	private short[] calculateAverage(int x, int y) {
-		int divisor;
-		short[] ave = new short[3];
-
-		if (x == 0 && y == 0) {
-			ave[0] += getRed(x,y)       + getRed(x+1,y) +
-								getRed(x,y+1)     + getRed(x+1,y+1);
-			ave[1] += getGreen(x,y)     + getGreen(x+1,y) +
-								getGreen(x,y+1)   + getGreen(x+1,y+1);
-			ave[2] += getBlue(x,y)      + getBlue(x+1,y) +
-								getBlue(x,y+1)    + getBlue(x+1,y+1);
-			divisor = 4;
-		} else if (x == width-1 && y == 0) {
-			ave[0] += getRed(x-1,y)     + getRed(x,y) +
-								getRed(x-1,y+1)   + getRed(x,y+1);
-			ave[1] += getGreen(x-1,y)   + getGreen(x,y) +
-								getGreen(x-1,y+1) + getGreen(x,y+1);
-			ave[2] += getBlue(x-1,y)    + getBlue(x,y) +
-								getBlue(x-1,y+1)  + getBlue(x,y+1);
-			divisor = 4;
-		} else if (x == 0 && y == height-1) {
-			ave[0] += getRed(x,y-1)     + getRed(x+1,y-1) +
-								getRed(x,y)       + getRed(x+1,y);
-			ave[1] += getGreen(x,y-1)   + getGreen(x+1,y-1) +
-								getGreen(x,y)     + getGreen(x+1,y);
-			ave[2] += getBlue(x,y-1)    + getBlue(x+1,y-1) +
-								getBlue(x,y)      + getBlue(x+1,y);
-			divisor = 4;
-		} else if (x == width-1 && y == height-1) {
-			ave[0] += getRed(x-1,y-1)   + getRed(x,y-1) +
-								getRed(x-1,y)     + getRed(x,y);
-			ave[1] += getGreen(x-1,y-1) + getGreen(x,y-1) +
-								getGreen(x-1,y)   + getGreen(x,y);
-			ave[2] += getBlue(x-1,y-1)  + getBlue(x,y-1) +
-								getBlue(x-1,y)    + getBlue(x,y);
-			divisor = 4;
-		}
-		else if (y == 0) {
-			ave[0] += getRed(x-1,y)     + getRed(x,y)     + getRed(x+1,y) +
-								getRed(x-1,y+1)   + getRed(x,y+1)   + getRed(x+1,y+1);
-			ave[1] += getGreen(x-1,y)   + getGreen(x,y)   + getGreen(x+1,y) +
-								getGreen(x-1,y+1) + getGreen(x,y+1) + getGreen(x+1,y+1);
-			ave[2] += getBlue(x-1,y)    + getBlue(x,y)    + getBlue(x+1,y) +
-								getBlue(x-1,y+1)  + getBlue(x,y+1)  + getBlue(x+1,y+1);
-			divisor = 6;
-		} else if (y == height-1) {
-			ave[0] += getRed(x-1,y-1)   + getRed(x,y-1)   + getRed(x+1,y-1) +
-								getRed(x-1,y)     + getRed(x,y)     + getRed(x+1,y);
-			ave[1] += getGreen(x-1,y-1) + getGreen(x,y-1) + getGreen(x+1,y-1) +
-								getGreen(x-1,y)   + getGreen(x,y)   + getGreen(x+1,y);
-			ave[2] += getBlue(x-1,y-1)  + getBlue(x,y-1)  + getBlue(x+1,y-1) +
-								getBlue(x-1,y)    + getBlue(x,y)    + getBlue(x+1,y);
-			divisor = 6;
-		} else if (x == 0) {
-			ave[0] += getRed(x,y-1)     + getRed(x,y)     + getRed(x,y+1) +
-								getRed(x+1,y-1)   + getRed(x+1,y)   + getRed(x+1,y+1);
-			ave[1] += getGreen(x,y-1)   + getGreen(x,y)   + getGreen(x,y+1) +
-								getGreen(x+1,y-1) + getGreen(x+1,y) + getGreen(x+1,y+1);
-			ave[2] += getBlue(x,y-1)    + getBlue(x,y)    + getBlue(x,y+1) +
-								getBlue(x+1,y-1)  + getBlue(x+1,y)  + getBlue(x+1,y+1);
-			divisor = 6;
-		} else if (x == width-1) {
-			ave[0] += getRed(x-1,y-1)   + getRed(x-1,y)   + getRed(x-1,y+1) +
-								getRed(x,y-1)     + getRed(x,y)     + getRed(x,y+1);
-			ave[1] += getGreen(x-1,y-1) + getGreen(x-1,y) + getGreen(x-1,y+1) +
-								getGreen(x,y-1)   + getGreen(x,y)   + getGreen(x,y+1);
-			ave[2] += getBlue(x-1,y-1)  + getBlue(x-1,y)  + getBlue(x-1,y+1) +
-								getBlue(x,y-1)    + getBlue(x,y)    + getBlue(x,y+1);
-			divisor = 6;
-		}	else {
-			ave[0] += getRed(x-1,y-1)   + getRed(x,y-1)   + getRed(x+1,y-1) +
-								getRed(x-1,y)     + getRed(x,y)     + getRed(x+1,y) +
-								getRed(x-1,y+1)   + getRed(x,y+1)   + getRed(x+1,y+1);
-			ave[1] += getGreen(x-1,y-1) + getGreen(x,y-1) + getGreen(x+1,y-1) +
-								getGreen(x-1,y)   + getGreen(x,y)   + getGreen(x+1,y) +
-								getGreen(x-1,y+1) + getGreen(x,y+1) + getGreen(x+1,y+1);
-			ave[2] += getBlue(x-1,y-1)  + getBlue(x,y-1)  + getBlue(x+1,y-1) +
-								getBlue(x-1,y)    + getBlue(x,y)    + getBlue(x+1,y) +
-								getBlue(x-1,y+1)  + getBlue(x,y+1)  + getBlue(x+1,y+1);
-			divisor = 9;
-		}
-		ave[0] /= divisor;
-		ave[1] /= divisor;
-		ave[2] /= divisor;
-		return ave;
 	}
 
+	// returns the weighted sum of three columns of a 3x3 neighborhood, given
+	// the indices of the left, center, and right samples within each row.
+	// An index of -1 stands for a neighbor outside the image.
+	private static int borderSum(byte[] above, int aOff, byte[] mid, int mOff,
+															 byte[] below, int bOff, int[] kernel,
+															 int left, int center, int right) {
+		int sum = kernel[1] * (above[aOff + center] & 0xFF) +
+							kernel[4] * (mid[mOff + center] & 0xFF) +
+							kernel[7] * (below[bOff + center] & 0xFF);
+		if (left >= 0) {
+			sum += kernel[0] * (above[aOff + left] & 0xFF) +
+						 kernel[3] * (mid[mOff + left] & 0xFF) +
+						 kernel[6] * (below[bOff + left] & 0xFF);
+		}
+		if (right >= 0) {
+			sum += kernel[2] * (above[aOff + right] & 0xFF) +
+						 kernel[5] * (mid[mOff + right] & 0xFF) +
+						 kernel[8] * (below[bOff + right] & 0xFF);
+		}
+		return sum;
+	}
 
 	/**
 	 * mag2gray() maps an energy (squared vector magnitude) in the range
 	 * 0...24,969,600 to a grayscale intensity in the range 0...255.  The map
 	 * is logarithmic, but shifted so that values of 5,080 and below map to zero.
 	 *
-	 * DO NOT CHANGE THIS METHOD.  If you do, you will not be able to get the
-	 * correct images and pass the autograder.
+	 * The logarithm itself is evaluated only when the class is loaded, by
+	 * logGray().  Because the map never decreases, each intensity k is reached
+	 * exactly from the energy GRAY_THRESHOLDS[k - 1] upward, so a binary
+	 * search over the 255 thresholds gives the same intensity as the formula.
 	 *
 	 * @param mag the energy (squared vector magnitude) of the pixel whose
 	 * intensity we want to compute.
 	 * @return the intensity of the output pixel.
 	 */
 	private static short mag2gray(long mag) {
+		// count the thresholds that mag has reached
+		int low = 0;
+		int high = GRAY_THRESHOLDS.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (GRAY_THRESHOLDS[mid] <= mag) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return (short) low;
+	}
+
+	/**
+	 * logGray() is the logarithmic map that mag2gray() is tabulated from.
+	 *
+	 * DO NOT CHANGE THIS METHOD.  If you do, you will not be able to get the
+	 * correct images and pass the autograder.
+	 *
+	 * @param mag the energy (squared vector magnitude) of a pixel.
+	 * @return the intensity of the output pixel.
+	 */
+	private static short logGray(long mag) {
 		short intensity = (short) (30.0 * Math.log(1.0 + (double) mag) - 256.0);
 
 		// Make sure the returned intensity is in the range 0...255, regardless of
@@ -301,6 +526,26 @@ public class PixImage {
 		return intensity;
 	}
 
+	// returns, for each intensity k in 1...255, the smallest energy that
+	// logGray() maps to k or more, stored at index k - 1
+	private static long[] grayThresholds() {
+		long[] thresholds = new long[255];
+		for (int k = 1; k <= 255; k++) {
+			long low = 0;
+			long high = Long.MAX_VALUE;
+			while (low < high) {
+				long mid = (low + high) >>> 1;
+				if (logGray(mid) >= k) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			thresholds[k - 1] = low;
+		}
+		return thresholds;
+	}
+
 	/**
 	 * sobelEdges() applies the Sobel operator, identifying edges in "this"
 	 * image.  The Sobel operator computes a magnitude that represents how
@@ -318,137 +563,234 @@ public class PixImage {
 	 */
 	public PixImage sobelEdges() {
 		// Replace the following line with your solution.
-		short[][] xkernel = { {1, 0, -1}, {2, 0, -2}, {1, 0, -1} };
-		short[][] ykernel = { {1, 2, 1}, {0, 0, 0}, {-1, -2, -1} };
-		// gradients gx and gy for each color
-		short gxRed = 0;
-		short gyRed = 0;
-		short gxGreen = 0;
-		short gyGreen = 0;
-		short gxBlue = 0;
-		short gyBlue = 0;
-		int energy = 0;   // energy of a pixel (sum of RGB gradients squared)
-		short gray = 0;   // stores pixel energy converted to grayscale intensity
 		PixImage edges = new PixImage(width, height);
-		/* For each pixel, do:
-				1. get surrounding pixels
-				2. calculate gx and gy for each color (6 total gradients)
-				3. compute energy exactly (cast as long/int before) */
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				short[][][] neighbors = getNeighbors(x, y);
-				gxRed   = calculateGradient(xkernel, neighbors, 0);
-				gyRed   = calculateGradient(ykernel, neighbors, 0);
-				gxGreen = calculateGradient(xkernel, neighbors, 1);
-				gyGreen = calculateGradient(ykernel, neighbors, 1);
-				gxBlue  = calculateGradient(xkernel, neighbors, 2);
-				gyBlue  = calculateGradient(ykernel, neighbors, 2);
-				energy =  (int) gxRed		* (int) gxRed		+ (int) gyRed		* (int) gyRed + 
-									(int) gxGreen	* (int) gxGreen	+ (int) gyGreen	* (int) gyGreen + 
-									(int) gxBlue	* (int) gxBlue	+ (int) gyBlue	* (int) gyBlue;
-				gray = mag2gray(energy);
-				edges.setPixel(x, y, gray, gray, gray);
-			}
+		sobelRows(edges, 0, height);
+		return edges;
+	}
+
+	/**
+	 * sobelEdges() (with one parameter) computes the same grayscale edge image
+	 * as sobelEdges(), but splits the rows of the image into bands that are
+	 * processed concurrently by a fork/join pool.  Every band reads the rows
+	 * just above and below it (its halo) straight from "this" image, which is
+	 * never modified, and writes only its own rows of the output image.
+	 *
+	 * @param parallelism the number of worker threads to use.  Values less
+	 * than 2 run the single-threaded version.
+	 * @return a grayscale PixImage representing the edges of the input image.
+	 */
+	public PixImage sobelEdges(int parallelism) {
+		if (parallelism < 2 || height < 2 * MIN_BAND_ROWS) {
+			return sobelEdges();
+		}
+		PixImage edges = new PixImage(width, height);
+		// a few bands per worker keep the threads busy if some bands are slower
+		int bandRows = Math.max(MIN_BAND_ROWS, height / (parallelism * 4));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new SobelBand(edges, 0, height, bandRows));
+		} finally {
+			pool.shutdown();
 		}
 		return edges;
 	}
 
-	// returns surrounding pixels around given x, y. reflects boundary pixels
-	private short[][][] getNeighbors(int x, int y) {
-		short a[][][] = new short[3][3][3];
-		// i and j are the current indice within the neighbor array a
-		// iEnd and jStop are the end indice within the neighbor array a
-		int i = 0;
-		int j = 0;
-		int iEnd = 2;
-		int jEnd = 2;
+	// computes rows yStart...yEnd - 1 of the Sobel edge image into edges
+	private void sobelRows(PixImage edges, int yStart, int yEnd) {
+		int stride = width * 3;
+		// gradients gx and gy of every sample in the row
+		int[] gx = new int[stride];
+		int[] gy = new int[stride];
+		for (int y = yStart; y < yEnd; y++) {
+			// the rows beyond the top and bottom are reflected
+			int out = y * stride;
+			sobelRow(pixels, y > 0 ? out - stride : out, pixels, out,
+							 pixels, y + 1 < height ? out + stride : out,
+							 gx, gy, edges.pixels, out);
+		}
+	}
+
+	// computes one row of a Sobel edge image, given the rows above, at, and
+	// below it as for convolveRow() (the row itself again beyond the top and
+	// bottom), and writes it to dst starting at index out
+	private void sobelRow(byte[] above, int aOff, byte[] mid, int mOff,
+												byte[] below, int bOff, int[] gx, int[] gy,
+												byte[] dst, int out) {
+		int stride = width * 3;
+		convolveRow(above, aOff, mid, mOff, below, bOff, width,
+								SOBEL_X_KERNEL, true, gx);
+		convolveRow(above, aOff, mid, mOff, below, bOff, width,
+								SOBEL_Y_KERNEL, true, gy);
+		// energy of a pixel is the sum of its RGB gradients squared
+		for (int i = 0; i < stride; i += 3) {
+			int energy = gx[i] * gx[i]         + gy[i] * gy[i] +
+									 gx[i + 1] * gx[i + 1] + gy[i + 1] * gy[i + 1] +
+									 gx[i + 2] * gx[i + 2] + gy[i + 2] * gy[i + 2];
+			byte gray = (byte) mag2gray(energy);
+			dst[out + i] = gray;
+			dst[out + i + 1] = gray;
+			dst[out + i + 2] = gray;
+		}
+	}
 
-		// set start point for i, and end points for i and j
-		if (x == 0) {
-			i = 1;
-		} else if (x == width-1) {
-			iEnd = 1;
+	/**
+	 * blurredEdges() returns the same grayscale edge image as
+	 * boxBlur(numIterations).sobelEdges(), without ever holding a whole
+	 * blurred image.  Use it when only the edges are wanted.
+	 *
+	 * Each iteration of blurring, and the Sobel operator after them, is a
+	 * stage that keeps just the last three rows it has computed.  A stage
+	 * computes its next row as soon as the stage before it has the row below
+	 * that one, so rows flow from "this" image through every stage to the
+	 * edge image in a single pass.  The rows in flight take about
+	 * 3 * (numIterations + 1) rows of memory, instead of one or two full
+	 * images that are each written out and read back once per iteration.
+	 *
+	 * @param numIterations the number of iterations of box blurring.
+	 * @return a grayscale PixImage representing the edges of the blurred image.
+	 */
+	public PixImage blurredEdges(int numIterations) {
+		if (numIterations <= 0) {
+			return sobelEdges();
 		}
-		if (y == height-1) {
-			jEnd = 1;
+		PixImage edges = new PixImage(width, height);
+		BlurPipeline blur = new BlurPipeline(numIterations);
+		int stride = width * 3;
+		int[] gx = new int[stride];
+		int[] gy = new int[stride];
+		for (int y = 0; y < height; y++) {
+			// the Sobel operator reflects the rows beyond the top and bottom
+			int yAbove = y > 0 ? y - 1 : y;
+			int yBelow = y + 1 < height ? y + 1 : y;
+			blur.advance(numIterations, yBelow);
+			sobelRow(blur.row(numIterations, yAbove), 0,
+							 blur.row(numIterations, y), 0,
+							 blur.row(numIterations, yBelow), 0,
+							 gx, gy, edges.pixels, y * stride);
 		}
+		return edges;
+	}
 
-		// copies non-boundary pixels surrounding x,y
-		for ( ; i <= iEnd; i++) {
-			if (y == 0) {
-				j = 1;
-			} else {
-				j = 0;
+	/**
+	 * A BlurPipeline computes the rows of repeated box blurs of "this" image
+	 * in order, keeping only three rows of each iteration.  Iteration 0 is
+	 * "this" image itself.
+	 */
+	private class BlurPipeline {
+		// rows[k][y % 3] is row y of iteration k, for the three rows most
+		// recently computed; done[k] is the number of rows computed so far
+		private final byte[][][] rows;
+		private final int[] done;
+		private final int[] sums;
+		private final byte[] zeros;
+
+		BlurPipeline(int numIterations) {
+			int stride = width * 3;
+			rows = new byte[numIterations + 1][][];
+			done = new int[numIterations + 1];
+			for (int k = 1; k <= numIterations; k++) {
+				rows[k] = new byte[3][stride];
 			}
-			for ( ; j <= jEnd; j++) {
-				a[i][j] = image[x-1+i][y-1+j];
+			sums = new int[stride];
+			zeros = new byte[stride];
+		}
+
+		// returns the array holding row y of iteration k, which must be one of
+		// the last three rows computed; the row starts at index 0, except in
+		// iteration 0, where it is "this" image's pixels
+		byte[] row(int k, int y) {
+			return k == 0 ? pixels : rows[k][y % 3];
+		}
+
+		// returns the index at which row(k, y) starts
+		private int offset(int k, int y) {
+			return k == 0 ? y * width * 3 : 0;
+		}
+
+		// computes the rows of iteration k up to and including row y.  Each
+		// needs the row below it from iteration k - 1, which is computed first;
+		// that never gets more than one row ahead, so the rows it overwrites are
+		// no longer needed.
+		void advance(int k, int y) {
+			while (done[k] <= y) {
+				int r = done[k];
+				int below = Math.min(r + 1, height - 1);
+				if (k > 1) {
+					advance(k - 1, below);
+				}
+				byte[] above = r > 0 ? row(k - 1, r - 1) : zeros;
+				byte[] next = r + 1 < height ? row(k - 1, r + 1) : zeros;
+				blurRow(above, r > 0 ? offset(k - 1, r - 1) : 0,
+								row(k - 1, r), offset(k - 1, r),
+								next, r + 1 < height ? offset(k - 1, r + 1) : 0,
+								r, rows[k][r % 3], 0, sums);
+				done[k]++;
 			}
 		}
+	}
 
-		// reflects pixel across boundary
-		if (x == 0 && y == 0) {
-		// top-left corner
-			a[0][0] = image[x][y];
-			a[1][0] = image[x][y];
-			a[2][0] = image[x+1][y];
-			a[0][1] = image[x][y];
-			a[0][2] = image[x][y+1];
-		} else if (x == 0 && y == height-1) {
-		// bottom-left corner
-			a[0][2] = image[x][y];
-			a[0][1] = image[x][y];
-			a[1][2] = image[x][y];
-			a[0][0] = image[x][y-1];
-			a[2][2] = image[x+1][y];
-		} else if (x == width-1 && y == 0) {
-		// top-right corner
-			a[2][0] = image[x][y];
-			a[1][0] = image[x][y];
-			a[2][1] = image[x][y];
-			a[0][0] = image[x-1][y];
-			a[2][2] = image[x][y+1];
-		} else if (x == width-1 && y == height-1) {
-		// bottom-right corner
-			a[2][2] = image[x][y];
-			a[1][2] = image[x][y];
-			a[2][1] = image[x][y];
-			a[0][2] = image[x-1][y];
-			a[2][0] = image[x][y-1];
-		} else if (x == 0) {
-		// left border
-			a[0][0] = image[x][y-1];
-			a[0][1] = image[x][y];
-			a[0][2] = image[x][y+1];
-		} else if (x == width-1) {
-		// right border
-			a[2][0] = image[x][y-1];
-			a[2][1] = image[x][y];
-			a[2][2] = image[x][y+1];
-		} else if (y == 0) {
-		// top border
-			a[0][0] = image[x-1][y];
-			a[1][0] = image[x][y];
-			a[2][0] = image[x+1][y];
-		} else if (y == height-1) {
-		// bottom border
-			a[0][2] = image[x-1][y];
-			a[1][2] = image[x][y];
-			a[2][2] = image[x+1][y];
-		}
-		return a;
-	}
-
-	// calculates the gradient given:
-	// 1. the kernel, 2. 3x3 neighbors array, and 3. color (0 = r, 1 = g, 2 = b)
-	private short calculateGradient(short[][] kernel, short[][][] neighbors, int color) {
-		short gradient = 0;
-		int size = kernel.length;
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				gradient += kernel[size-1-x][size-1-y] * neighbors[x][y][color];
+	/**
+	 * sobelPixel() recomputes the single pixel (x, y) of the Sobel edge image
+	 * of "this" image into edges, giving exactly the intensity sobelEdges()
+	 * gives it.  Used to bring an edge image up to date after a few pixels of
+	 * "this" image change; see SobelEdgeMap.
+	 *
+	 * @param edges the edge image to update, the same size as "this" image.
+	 * @param x the x-coordinate of the pixel.
+	 * @param y the y-coordinate of the pixel.
+	 */
+	void sobelPixel(PixImage edges, int x, int y) {
+		int stride = width * 3;
+		int out = y * stride;
+		// the rows and columns beyond the borders are reflected
+		int aOff = y > 0 ? out - stride : out;
+		int bOff = y + 1 < height ? out + stride : out;
+		int center = 3 * x;
+		int left = x > 0 ? center - 3 : center;
+		int right = x + 1 < width ? center + 3 : center;
+		int energy = 0;
+		for (int c = 0; c < 3; c++) {
+			int gx = borderSum(pixels, aOff, pixels, out, pixels, bOff,
+												 SOBEL_X_KERNEL, left + c, center + c, right + c);
+			int gy = borderSum(pixels, aOff, pixels, out, pixels, bOff,
+												 SOBEL_Y_KERNEL, left + c, center + c, right + c);
+			energy += gx * gx + gy * gy;
+		}
+		byte gray = (byte) mag2gray(energy);
+		int i = out + center;
+		edges.pixels[i] = gray;
+		edges.pixels[i + 1] = gray;
+		edges.pixels[i + 2] = gray;
+	}
+
+	/**
+	 * A SobelBand computes a range of rows of a Sobel edge image, splitting
+	 * itself in half until the range is no taller than maxRows.
+	 */
+	private class SobelBand extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final PixImage edges;
+		private final int yStart;
+		private final int yEnd;
+		private final int maxRows;
+
+		SobelBand(PixImage edges, int yStart, int yEnd, int maxRows) {
+			this.edges = edges;
+			this.yStart = yStart;
+			this.yEnd = yEnd;
+			this.maxRows = maxRows;
+		}
+
+		protected void compute() {
+			if (yEnd - yStart <= maxRows) {
+				sobelRows(edges, yStart, yEnd);
+			} else {
+				int yMid = (yStart + yEnd) >>> 1;
+				invokeAll(new SobelBand(edges, yStart, yMid, maxRows),
+									new SobelBand(edges, yMid, yEnd, maxRows));
 			}
 		}
-		return gradient;
 	}
 
 	/**
@@ -496,6 +838,28 @@ public class PixImage {
 		return image;
 	}
 
+	/**
+	 * randomImage() returns an image of the specified size filled with
+	 * pseudorandom colors.  The same size always gives the same image.
+	 *
+	 * @param width the width of the image.
+	 * @param height the height of the image.
+	 * @return a new PixImage of random colors.
+	 */
+	private static PixImage randomImage(int width, int height) {
+		Random random = new Random(width * 31 + height);
+		PixImage image = new PixImage(width, height);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setPixel(x, y, (short) random.nextInt(256),
+											 (short) random.nextInt(256), (short) random.nextInt(256));
+			}
+		}
+
+		return image;
+	}
+
 	/**
 	 * equals() checks whether two images are the same, i.e. have the same
 	 * dimensions and pixels.
@@ -512,8 +876,8 @@ public class PixImage {
 			return false;
 		}
 
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
 				if (! (getRed(x, y) == image.getRed(x, y) &&
 							 getGreen(x, y) == image.getGreen(x, y) &&
 							 getBlue(x, y) == image.getBlue(x, y))) {
@@ -577,6 +941,8 @@ public class PixImage {
 					 array2PixImage(new int[][] { { 25, 50, 75 },
 																				{ 25, 50, 75 } })),
 					 "Incorrect box blur (1 rep):\n" + image2.boxBlur(1));
+		doTest(image2.boxBlur(3).equals(image2.boxBlur(1).boxBlur(1).boxBlur(1)),
+					 "Incorrect box blur (3 rep):\n" + image2.boxBlur(3));
 
 		System.out.println("Testing edge detection on a 2x3 image.");
 		doTest(image2.sobelEdges().equals(
@@ -584,9 +950,163 @@ public class PixImage {
 																				{ 74, 143, 122 } })),
 					 "Incorrect Sobel:\n" + image2.sobelEdges());
 
+		PixImage image3 = randomImage(57, 131);
+		System.out.println("Testing parallel edge detection on a 57x131 image.");
+		doTest(image3.sobelEdges(4).equals(image3.sobelEdges()),
+					 "Parallel Sobel differs from sequential Sobel.");
+
+		System.out.println("Testing SobelEdgeMap after random edits to a 57x131 " +
+											 "image.");
+		PixImage edited = randomImage(57, 131);
+		SobelEdgeMap edgeMap = new SobelEdgeMap(edited);
+		Random random = new Random(16);
+		boolean sameEdges = edgeMap.edges().equals(edited.sobelEdges());
+		for (int i = 0; i < 50; i++) {
+			// a small burst of edits, often on the borders
+			for (int j = random.nextInt(4); j >= 0; j--) {
+				int x = random.nextBoolean() ? random.nextInt(57) : 56 * random.nextInt(2);
+				int y = random.nextBoolean() ? random.nextInt(131) : 130 * random.nextInt(2);
+				short gray = (short) random.nextInt(256);
+				edgeMap.setPixel(x, y, gray, (short) random.nextInt(256), gray);
+			}
+			sameEdges = sameEdges && edgeMap.edges().equals(edited.sobelEdges());
+		}
+		doTest(sameEdges, "SobelEdgeMap differs from sobelEdges() after edits.");
+
+		System.out.println("Testing SobelEdgeMap after random edits to a " +
+											 "RunLengthEncoding of a 57x131 image.");
+		RunLengthEncoding encoded = new RunLengthEncoding(randomImage(57, 131));
+		SobelEdgeMap encodedMap = new SobelEdgeMap(encoded);
+		for (int i = 0; i < 200; i++) {
+			short gray = (short) (random.nextInt(2) * 255);
+			encodedMap.setPixel(random.nextInt(57), random.nextInt(131),
+													gray, gray, gray);
+		}
+		PixImage decoded = encoded.toPixImage();
+		doTest(encodedMap.getEncoding() == encoded &&
+					 decoded.equals(encodedMap.getImage()) &&
+					 encodedMap.edges().equals(decoded.sobelEdges()),
+					 "SobelEdgeMap and the RunLengthEncoding it edits disagree.");
+
+		System.out.println("Testing TiledImage with 16x16 tiles, 3 of them cached, " +
+											 "on a 57x131 image.");
+		try {
+			TiledImage tiled = TiledImage.copyOf(image3, 16, 3);
+			doTest(tiled.toPixImage().equals(image3),
+						 "TiledImage does not hold the pixels it was copied from.");
+			TiledImage tiledBlur = tiled.boxBlur(5);
+			doTest(tiledBlur.toPixImage().equals(image3.boxBlur(5)),
+						 "TiledImage.boxBlur() differs from boxBlur().");
+			TiledImage tiledEdges = tiled.sobelEdges();
+			doTest(tiledEdges.toPixImage().equals(image3.sobelEdges()),
+						 "TiledImage.sobelEdges() differs from sobelEdges().");
+			tiled.setPixel(40, 100, (short) 1, (short) 2, (short) 3);
+			doTest(tiled.getRed(40, 100) == 1 && tiled.getGreen(40, 100) == 2 &&
+						 tiled.getBlue(40, 100) == 3 &&
+						 tiled.getRed(0, 0) == image3.getRed(0, 0),
+						 "TiledImage.setPixel() fails.");
+			tiled.close();
+			tiledBlur.close();
+			tiledEdges.close();
+		} catch (IOException e) {
+			doTest(false, "TiledImage threw " + e);
+		}
+
+		System.out.println("Testing blurredEdges() on a 57x131 image.");
+		boolean sameBlurred = true;
+		for (int n = 0; n <= 4; n++) {
+			sameBlurred = sameBlurred &&
+					image3.blurredEdges(n).equals(image3.boxBlur(n).sobelEdges());
+		}
+		sameBlurred = sameBlurred &&
+				randomImage(1, 5).blurredEdges(3).equals(
+						randomImage(1, 5).boxBlur(3).sobelEdges()) &&
+				randomImage(6, 1).blurredEdges(2).equals(
+						randomImage(6, 1).boxBlur(2).sobelEdges());
+		doTest(sameBlurred, "blurredEdges() differs from boxBlur().sobelEdges().");
+
+		System.out.println("Testing images with no pixels.");
+		boolean emptyOk = true;
+		int[][] emptySizes = { { 0, 3 }, { 3, 0 }, { 0, 0 } };
+		for (int[] size : emptySizes) {
+			PixImage empty = new PixImage(size[0], size[1]);
+			emptyOk = emptyOk && empty.boxBlur(2).equals(empty) &&
+				empty.sobelEdges().equals(empty) &&
+				empty.blurredEdges(2).equals(empty) &&
+				empty.convolve(new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 1 }, 9)
+				.equals(empty);
+		}
+		doTest(emptyOk, "Operations on an empty image fail.");
+
+		System.out.println("Testing images too large for one array.");
+		int[][] hugeSizes = { { 30000, 30000 }, { 40000, 40000 } };
+		for (int[] size : hugeSizes) {
+			boolean refused = false;
+			try {
+				new PixImage(size[0], size[1]);
+			} catch (IllegalArgumentException e) {
+				refused = true;
+			}
+			doTest(refused, "A " + size[0] + "x" + size[1] +
+						 " PixImage was not refused.");
+		}
+
+		System.out.println("Testing convolution with an identity kernel.");
+		doTest(image3.convolve(new int[] { 0, 0, 0, 0, 1, 0, 0, 0, 0 }, 1)
+					 .equals(image3),
+					 "Identity convolution changed the image.");
+
+		System.out.println("Testing fillSpan() on a 57x131 image.");
+		PixImage filled = image3.boxBlur(1);
+		PixImage expected = image3.boxBlur(1);
+		filled.fillSpan(5, 7, 40, (short) 1, (short) 2, (short) 3);
+		filled.fillSpan(50, 8, 8, (short) 9, (short) 9, (short) 9);  // too long
+		for (int x = 5; x < 45; x++) {
+			expected.setPixel(x, 7, (short) 1, (short) 2, (short) 3);
+		}
+		doTest(filled.equals(expected), "Incorrect fillSpan().");
+
+		if (vectorConvolver != null) {
+			System.out.println("Testing the Vector API convolution against the " +
+												 "scalar loop.");
+			int[] widths = { 1, 2, 3, 7, 8, 9, 57, 64, 203 };
+			PixImage[] images = new PixImage[widths.length];
+			PixImage[] vectorResults = new PixImage[widths.length * 3];
+			for (int k = 0; k < widths.length; k++) {
+				images[k] = randomImage(widths[k], 11);
+				vectorResults[3 * k] = images[k].boxBlur(3);
+				vectorResults[3 * k + 1] = images[k].sobelEdges();
+				vectorResults[3 * k + 2] = images[k].convolve(
+						new int[] { 1, -2, 3, -4, 5, -6, 7, -8, 9 }, 3);
+			}
+			RowConvolver vector = vectorConvolver;
+			vectorConvolver = null;
+			boolean sameSums = true;
+			for (int k = 0; k < widths.length; k++) {
+				sameSums = sameSums &&
+						vectorResults[3 * k].equals(images[k].boxBlur(3)) &&
+						vectorResults[3 * k + 1].equals(images[k].sobelEdges()) &&
+						vectorResults[3 * k + 2].equals(images[k].convolve(
+								new int[] { 1, -2, 3, -4, 5, -6, 7, -8, 9 }, 3));
+			}
+			vectorConvolver = vector;
+			doTest(sameSums, "Vector API convolution differs from the scalar loop.");
+		}
+
+		System.out.println("Testing the mag2gray() lookup table.");
+		boolean sameGray = true;
+		for (int k = 0; k < GRAY_THRESHOLDS.length; k++) {
+			long t = GRAY_THRESHOLDS[k];
+			sameGray = sameGray && mag2gray(t) == logGray(t) &&
+								 mag2gray(t - 1) == logGray(t - 1);
+		}
+		for (long mag = 0; mag <= 24969600; mag += 997) {
+			sameGray = sameGray && mag2gray(mag) == logGray(mag);
+		}
+		doTest(sameGray, "mag2gray() table differs from the logarithmic map.");
+
 		// additional test cases
 		// testBoxBlur();
-		// testReflect();
 	}
 
 	private static void testBoxBlur() {
@@ -598,32 +1118,4 @@ public class PixImage {
 					 "Incorrect box blur (0 rep):\n" + image1.boxBlur(0));
 	}
 
-	private static void testReflect() {
-		PixImage image = array2PixImage(new int[][] { { 0, 10, 240 },
-																									{ 30, 120, 250 },
-																									{ 80, 250, 255 } });
-		System.out.println("Testing reflect on a 3x3 image.");
-		// prints the intensity of grayscale 3x3 image
-		for (int i = 0; i < image.getWidth(); i++) {
-			for (int j = 0; j < image.getHeight(); j++) {
-				System.out.print(image.getRed(i, j) + "\t");
-			}
-			System.out.println();
-		}
-		// iterate through all pixels in 3x3 image
-		for (int row = 0; row < image.getHeight(); row++) {
-			for (int col = 0; col < image.getWidth(); col++) {
-				short[][][] neighbors = image.getNeighbors(row, col);
-				System.out.println("\nx: " + col + ", y: " + row);
-				// print out surrounding pixels around current (center) pixel
-				for (int i = 0; i < neighbors.length; i++) {
-					for (int j = 0; j < neighbors[0].length; j++) {
-						System.out.print(neighbors[i][j][0] + "\t");
-					}
-					System.out.println("");
-				}
-			}
-		}
-	}
-
 }
@@ -0,0 +1,55 @@
+/* RowConvolver.java */
+
+/**
+ *	A RowConvolver computes the interior of one row of a 3x3 convolution:
+ *	the loop of PixImage.convolveRow() that covers every column but the first
+ *	and last.  PixImage runs that loop itself unless an implementation using
+ *	the Vector API (jdk.incubator.vector) is available, in which case it
+ *	hands the loop to that.  Both give exactly the same sums.
+ *
+ *	The Vector API is an incubating module, so the implementation,
+ *	VectorRowConvolver, lives in the vector directory and is compiled and run
+ *	only when asked for:
+ *
+ *			javac -cp "jai_core.jar:jai_codec.jar" *.java
+ *			javac --add-modules jdk.incubator.vector -d . vector/*.java
+ *			java --add-modules jdk.incubator.vector -cp ".:jai_core.jar:jai_codec.jar"
+ *					 Blur image.tiff 3
+ *
+ *	Without those steps (or on a JDK older than 16, or on hardware whose
+ *	vectors are too short to pay off) load() returns null and everything runs
+ *	as before.
+ */
+
+interface RowConvolver {
+
+	/**
+	 *	convolveInterior() sets sums[i], for 3 <= i < last, to the weighted sum
+	 *	of the 3x3 neighborhood of sample i, exactly as PixImage.convolveRow()
+	 *	does.  The arguments are those of convolveRow(); last is the index of
+	 *	the first sample of the last column.
+	 */
+	void convolveInterior(byte[] above, int aOff, byte[] mid, int mOff,
+												byte[] below, int bOff, int last,
+												int[] kernel, int[] sums);
+
+	/**
+	 *	load() returns the Vector API RowConvolver, or null if it was not
+	 *	compiled, the jdk.incubator.vector module is not present, or it would
+	 *	not be faster than the scalar loop on this machine.
+	 *
+	 *	@return a RowConvolver, or null.
+	 */
+	static RowConvolver load() {
+		try {
+			return (RowConvolver) Class.forName("VectorRowConvolver")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			// not compiled, or its constructor refused this machine
+			return null;
+		} catch (LinkageError e) {
+			// compiled, but the module wasn't added with --add-modules
+			return null;
+		}
+	}
+}
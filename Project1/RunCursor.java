@@ -0,0 +1,111 @@
+/* RunCursor.java */
+
+/**
+ *  The RunCursor class steps through the runs of a RunLengthEncoding without
+ *  allocating anything per run.  Where a RunIterator copies each run into
+ *  a fresh four-int array, a RunCursor reads the current run's length and
+ *  intensities directly from the encoding's run storage.
+ *
+ *  A newly constructed RunCursor is positioned before the first run.  Each
+ *  call to advance() moves it to the next run and returns false once every
+ *  run has been visited, so a complete pass looks like
+ *
+ *      RunCursor cursor = rle.cursor();
+ *      while (cursor.advance()) {
+ *        ... cursor.length(), cursor.red(), cursor.green(), cursor.blue() ...
+ *      }
+ *
+ *  Like a RunIterator, a RunCursor is not guaranteed to work if the
+ *  underlying RunLengthEncoding is modified after the RunCursor is
+ *  constructed.  Obtain RunCursors from RunLengthEncoding.cursor().
+ */
+
+public class RunCursor {
+
+  private RunStore runs;
+  private int current;  // index of the current run, or -1 before the first
+
+  /**
+   *  RunCursor() constructs a cursor positioned before the first run.
+   *
+   *  @param runs the runs of the encoding.
+   */
+  RunCursor(RunStore runs) {
+    this(runs, 0);
+  }
+
+  /**
+   *  RunCursor() constructs a cursor positioned just before a specified run,
+   *  so the first call to advance() moves to that run.
+   *
+   *  @param runs the runs of the encoding.
+   *  @param first the index of the run advance() moves to first.
+   */
+  RunCursor(RunStore runs, int first) {
+    this.runs = runs;
+    current = first - 1;
+  }
+
+  /**
+   *  advance() moves this cursor to the next run.
+   *
+   *  @return true if the cursor is now on a run; false if every run has
+   *  already been visited.
+   */
+  public boolean advance() {
+    if (current + 1 < runs.size()) {
+      current++;
+      return true;
+    }
+    current = runs.size();
+    return false;
+  }
+
+  /**
+   *  start() returns the position of the first pixel of the current run,
+   *  counting row by row from 0.  The result is undefined unless the last
+   *  call to advance() returned true.
+   *
+   *  @return the position of the current run.
+   */
+  public int start() {
+    return runs.start(current);
+  }
+
+  /**
+   *  length() returns the number of pixels in the current run.  The result is
+   *  undefined unless the last call to advance() returned true.
+   *
+   *  @return the length of the current run.
+   */
+  public int length() {
+    return runs.length(current);
+  }
+
+  /**
+   *  red() returns the red intensity of the current run.
+   *
+   *  @return the red intensity of the current run.
+   */
+  public int red() {
+    return runs.red(current);
+  }
+
+  /**
+   *  green() returns the green intensity of the current run.
+   *
+   *  @return the green intensity of the current run.
+   */
+  public int green() {
+    return runs.green(current);
+  }
+
+  /**
+   *  blue() returns the blue intensity of the current run.
+   *
+   *  @return the blue intensity of the current run.
+   */
+  public int blue() {
+    return runs.blue(current);
+  }
+}
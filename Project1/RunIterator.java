@@ -36,13 +36,13 @@ public class RunIterator implements Iterator {
    *  Define any variables associated with a RunIterator object here.
    *  These variables MUST be private.
    */
-  private DListNode head;
-  private DListNode next;
+  private RunStore runs;
+  private int next;  // index of the run that next() returns
 
   /**
    *  RunIterator() constructs a new iterator starting with a specified run.
    *
-   *  @param node the run where this iterator starts.
+   *  @param runs the runs of the encoding; the iterator starts at run 0.
    */
   // Unlike all the other methods we have asked you to write, the RunIterator()
   // constructor does not have a predefined signature, because no outside
@@ -53,10 +53,10 @@ public class RunIterator implements Iterator {
   // constructor that you want so that your RunLengthEncoding.iterator()
   // implementation can construct a RunIterator that points to the first run of
   // the encoding.
-  RunIterator(DList list) {
+  RunIterator(RunStore runs) {
     // Your solution here.  You may add parameters to the method signature.
-    head = list.head;
-    next = head.next;
+    this.runs = runs;
+    next = 0;
   }
 
   /**
@@ -67,10 +67,7 @@ public class RunIterator implements Iterator {
    */
   public boolean hasNext() {
     // Replace the following line with your solution.
-    if (next != head) {
-      return true;
-    }
-    return false;
+    return next < runs.size();
   }
 
   /**
@@ -102,10 +99,11 @@ public class RunIterator implements Iterator {
     // Replace the following line with your solution.
     int item[] = new int[4];
     if (hasNext()) {
-      for (int i = 0; i < item.length; i++) {
-        item[i] = next.item[i];
-      }
-      next = next.next;
+      item[0] = runs.length(next);
+      item[1] = runs.red(next);
+      item[2] = runs.green(next);
+      item[3] = runs.blue(next);
+      next++;
     } else {
       throw new NoSuchElementException();
     }
@@ -0,0 +1,145 @@
+/* RunLengthEncoder.java */
+
+/**
+ *  The RunLengthEncoder class builds a RunLengthEncoding one row of pixels at
+ *  a time, without ever holding the whole image.  Rows are supplied top to
+ *  bottom as packed RGB ints (the format of BufferedImage.getRGB():  red in
+ *  bits 16-23, green in bits 8-15, blue in bits 0-7; higher bits are
+ *  ignored).  Runs are appended as soon as they end, so the memory needed is
+ *  one row in the caller's buffer plus the runs themselves.
+ *
+ *  The result is identical to constructing a RunLengthEncoding from
+ *  a PixImage holding the same pixels.
+ */
+
+public class RunLengthEncoder {
+
+	private final int width;
+	private final int height;
+	private RunStore runs;
+	private int pixels;     // number of pixels appended so far
+	private int runLength;  // length of the current, still open run
+	private int runColor;   // packed RGB of the current run
+
+	/**
+	 *  RunLengthEncoder() constructs an encoder for an image of the specified
+	 *  width and height.
+	 *
+	 *  @param width the width of the image.
+	 *  @param height the height of the image.
+	 */
+	public RunLengthEncoder(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("image must be at least 1x1");
+		}
+		this.width = width;
+		this.height = height;
+		runs = new RunStore(16);
+		pixels = 0;
+		runLength = 0;
+		runColor = -1;
+	}
+
+	/**
+	 *  appendRow() encodes the next row of the image.
+	 *
+	 *  @param rgb an array holding the packed RGB values of the row.
+	 *  @param offset the index in rgb of the row's leftmost pixel; the row
+	 *  occupies rgb[offset]...rgb[offset + width - 1].
+	 */
+	public void appendRow(int[] rgb, int offset) {
+		checkRow();
+		for (int i = offset; i < offset + width; i++) {
+			appendPixel(rgb[i] & 0xFFFFFF);
+		}
+		pixels += width;
+	}
+
+	/**
+	 *  appendRow() encodes the next row of the image from bytes in the format
+	 *  written by PixImage.getRow():  red, green, and blue, three per pixel.
+	 *
+	 *  @param rgb an array holding the bytes of the row.
+	 *  @param offset the index in rgb of the red byte of the leftmost pixel.
+	 */
+	void appendRow(byte[] rgb, int offset) {
+		checkRow();
+		for (int i = offset; i < offset + 3 * width; i += 3) {
+			appendPixel(((rgb[i] & 0xFF) << 16) | ((rgb[i + 1] & 0xFF) << 8) |
+									(rgb[i + 2] & 0xFF));
+		}
+		pixels += width;
+	}
+
+	/**
+	 *  appendSpan() encodes the next length pixels of the image, which all
+	 *  have the same color.  Spans may start and end anywhere in a row and
+	 *  may be mixed with calls to appendRow() as long as those start on a row
+	 *  boundary.
+	 *
+	 *  @param length the number of pixels.
+	 *  @param color the packed RGB value of the pixels.
+	 */
+	void appendSpan(int length, int color) {
+		if (length > width * height - pixels) {
+			throw new IllegalStateException("span runs past the end of the image");
+		}
+		if (length <= 0) {
+			return;
+		}
+		color &= 0xFFFFFF;
+		if (color == runColor) {
+			runLength += length;
+		} else {
+			closeRun();
+			runLength = length;
+			runColor = color;
+		}
+		pixels += length;
+	}
+
+	/**
+	 *  finish() returns the run-length encoding of the rows appended.  Every
+	 *  row of the image must have been appended.  The encoder cannot be used
+	 *  afterward.
+	 *
+	 *  @return the RunLengthEncoding of the image.
+	 */
+	public RunLengthEncoding finish() {
+		if (pixels != width * height) {
+			throw new IllegalStateException("only " + pixels / width + " of " +
+																			height + " rows appended");
+		}
+		closeRun();
+		RunLengthEncoding rle = new RunLengthEncoding(width, height, runs);
+		runs = null;
+		return rle;
+	}
+
+	// throws an exception if every row has already been appended
+	private void checkRow() {
+		if (pixels > width * height - width) {
+			throw new IllegalStateException("all " + height + " rows already appended");
+		}
+	}
+
+	// extends the current run by one pixel of the specified color, or closes
+	// it and starts a new one
+	private void appendPixel(int color) {
+		if (color == runColor) {
+			runLength++;
+		} else {  // run ended
+			closeRun();
+			runLength = 1;
+			runColor = color;
+		}
+	}
+
+	// appends the current run, if there is one, to the run store
+	private void closeRun() {
+		if (runLength > 0) {
+			runs.append(runLength, runColor >> 16, (runColor >> 8) & 0xFF,
+									runColor & 0xFF);
+		}
+	}
+}
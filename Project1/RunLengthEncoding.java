@@ -21,13 +21,33 @@
  *  See the README file accompanying this project for additional details.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class RunLengthEncoding implements Iterable {
 
 	private int width;
 	private int height;
-	private DList runs;
+	private RunStore runs;
+
+	// rowRuns[y] is the index of the run holding pixel (0, y).  Built by
+	// runAt() once enough pixels have been read to pay for it, and dropped by
+	// setPixel() whenever the runs change.  Until it is built, runAt() counts
+	// its lookups in unindexedReads.
+	private volatile int[] rowRuns;
+	private int unindexedReads;
+
+	// bands of rows smaller than this are not worth handing to another thread
+	private static final int MIN_BAND_ROWS = 16;
 
 
 	/**
@@ -46,8 +66,8 @@ public class RunLengthEncoding implements Iterable {
 	public RunLengthEncoding(int width, int height) {
 		this.width = width;
 		this.height = height;
-		int[] run = {width*height, 0, 0, 0};
-		runs = new DList(run);
+		runs = new RunStore(1);
+		runs.append(width*height, 0, 0, 0);
 	}
 
 	/**
@@ -90,7 +110,7 @@ public class RunLengthEncoding implements Iterable {
 			return; 
 		}
 
-		runs = new DList();
+		runs = new RunStore(runLengths.length);
 
 		for (int run : runLengths) {
 			sum += run;
@@ -107,11 +127,25 @@ public class RunLengthEncoding implements Iterable {
 				System.err.println("pixel intensity is out of range [0, 255].");
 				return;
 			}
-			int run[] = {runLengths[i], red[i], green[i], blue[i]};
-			runs.insertBack(run);
+			runs.append(runLengths[i], red[i], green[i], blue[i]);
 		}
 	}
 
+	/**
+	 *  RunLengthEncoding() (with three parameters) wraps runs that have already
+	 *  been built, for example by a RunLengthEncoder.  The runs must cover
+	 *  width * height pixels and be fully compressed.
+	 *
+	 *  @param width the width of the image.
+	 *  @param height the height of the image.
+	 *  @param runs the runs of the encoding, which now belong to it.
+	 */
+	RunLengthEncoding(int width, int height, RunStore runs) {
+		this.width = width;
+		this.height = height;
+		this.runs = runs;
+	}
+
 	/**
 	 *  getWidth() returns the width of the image that this run-length encoding
 	 *  represents.
@@ -133,6 +167,90 @@ public class RunLengthEncoding implements Iterable {
 		return height;
 	}
 
+	/**
+	 *  getRed() returns the red intensity of the pixel at coordinate (x, y),
+	 *  without decoding the image, in O(log n) time for n runs.  Once about
+	 *  (n + height) / 16 pixels have been read since the encoding was
+	 *  constructed or last changed by setPixel(), one call indexes the first
+	 *  run of every row in O(n + height) time; after that, each call searches
+	 *  only the runs of row y, in O(log r) time for r runs in the row.
+	 *
+	 *  @param x the x-coordinate of the pixel.
+	 *  @param y the y-coordinate of the pixel.
+	 *  @return the red intensity of the pixel at coordinate (x, y).
+	 *  @throws IndexOutOfBoundsException if (x, y) is outside the image.
+	 */
+	public short getRed(int x, int y) {
+		return (short) runs.red(runAt(x, y));
+	}
+
+	/**
+	 *  getGreen() returns the green intensity of the pixel at coordinate
+	 *  (x, y), in the same time as getRed().
+	 *
+	 *  @param x the x-coordinate of the pixel.
+	 *  @param y the y-coordinate of the pixel.
+	 *  @return the green intensity of the pixel at coordinate (x, y).
+	 *  @throws IndexOutOfBoundsException if (x, y) is outside the image.
+	 */
+	public short getGreen(int x, int y) {
+		return (short) runs.green(runAt(x, y));
+	}
+
+	/**
+	 *  getBlue() returns the blue intensity of the pixel at coordinate (x, y),
+	 *  in the same time as getRed().
+	 *
+	 *  @param x the x-coordinate of the pixel.
+	 *  @param y the y-coordinate of the pixel.
+	 *  @return the blue intensity of the pixel at coordinate (x, y).
+	 *  @throws IndexOutOfBoundsException if (x, y) is outside the image.
+	 */
+	public short getBlue(int x, int y) {
+		return (short) runs.blue(runAt(x, y));
+	}
+
+	// returns the index of the run holding pixel (x, y).  Any number of
+	// threads may call this at once, as long as none calls setPixel().  The
+	// races among them are benign:  an increment of unindexedReads lost to
+	// another thread only delays the index, and threads that build it at the
+	// same time each build an identical, complete array before publishing it
+	// through the volatile field, so whichever array a reader sees is right.
+	private int runAt(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException("(" + x + ", " + y +
+																					") is outside the image");
+		}
+		int[] index = rowRuns;
+		if (index == null) {
+			// Without the index a read searches every run, in O(log n) time.
+			// Build the O(n + height) index only after enough reads to pay
+			// for it, so reads between writes stay logarithmic.
+			if (unindexedReads++ < (runs.size() + height) >>> 4) {
+				return runs.find(y * width + x);
+			}
+			index = indexRows();
+			rowRuns = index;
+		}
+		// row y ends in the run holding (0, y + 1), or in the last run
+		int last = y + 1 < height ? index[y + 1] : runs.size() - 1;
+		return runs.find(y * width + x, index[y], last);
+	}
+
+	// returns the index of the first run of each row, found in one pass
+	private int[] indexRows() {
+		int[] index = new int[height];
+		int i = 0;
+		for (int y = 0; y < height; y++) {
+			int rowStart = y * width;
+			while (i + 1 < runs.size() && runs.start(i + 1) <= rowStart) {
+				i++;
+			}
+			index[y] = i;
+		}
+		return index;
+	}
+
 	/**
 	 *  iterator() returns a newly created RunIterator that can iterate through
 	 *  the runs of this RunLengthEncoding.
@@ -144,6 +262,31 @@ public class RunLengthEncoding implements Iterable {
 		return new RunIterator(runs);
 	}
 
+	/**
+	 *  cursor() returns a newly created RunCursor positioned before the first
+	 *  run of this RunLengthEncoding.  Unlike iterator(), stepping through the
+	 *  runs with a RunCursor allocates nothing per run.
+	 *
+	 *  @return a newly created RunCursor for this RunLengthEncoding.
+	 */
+	public RunCursor cursor() {
+		return new RunCursor(runs);
+	}
+
+	/**
+	 *  cursor() returns a newly created RunCursor positioned before the run
+	 *  that holds the pixel at the specified position, counting row by row
+	 *  from 0, so stepping through part of the image does not have to start
+	 *  at the first run.  The run is found in O(log n) time for n runs.
+	 *
+	 *  @param position the position of a pixel, from 0 to
+	 *  width * height - 1.
+	 *  @return a newly created RunCursor for this RunLengthEncoding.
+	 */
+	public RunCursor cursor(int position) {
+		return new RunCursor(runs, runs.find(position));
+	}
+
 	/**
 	 *  toPixImage() converts a run-length encoding of an image into a PixImage
 	 *  object.
@@ -152,21 +295,24 @@ public class RunLengthEncoding implements Iterable {
 	 */
 	public PixImage toPixImage() {
 		PixImage image = new PixImage(width, height);
-		RunIterator it = iterator();
+		RunCursor run = cursor();
 		int x = 0;
 		int y = 0;
-		while (it.hasNext()) {
-			int[] run = it.next();
-			int runLength = run[0];
-			// set the pixels for each run
+		while (run.advance()) {
+			int runLength = run.length();
+			short red = (short) run.red();
+			short green = (short) run.green();
+			short blue = (short) run.blue();
+			// fill the run one row segment at a time
 			while (runLength > 0) {
-				image.setPixel(x, y, (short) run[1], (short) run[2], (short) run[3]);
-				x++;
-				if (x == width) { // x greater than index value, increment y and reset x
+				int span = Math.min(runLength, width - x);
+				image.fillSpan(x, y, span, red, green, blue);
+				x += span;
+				if (x == width) { // reached end of row, increment y and reset x
 					y++;
 					x = 0;
 				}
-				runLength--;
+				runLength -= span;
 			}
 		}
 		return image;
@@ -209,73 +355,119 @@ public class RunLengthEncoding implements Iterable {
 	public RunLengthEncoding(PixImage image) {
 		width = image.getWidth();
 		height = image.getHeight();
-		runs = new DList();
+		runs = new RunStore(16);
 
 		int runLength = 0;  // length of current run
-		int startX = 0; // start of run x coord
-		int startY = 0; // start of run y coord
+		short red = image.getRed(0, 0);  // color of current run
+		short green = image.getGreen(0, 0);
+		short blue = image.getBlue(0, 0);
 
 		// Loop through entire PixImage:
-		//	1. check if current pixel matches pixel from start of current run
+		//	1. check if current pixel matches the color of the current run
 		//	2a. if true, increment run
-		//	2b. else, create a new run, insert to list, and set runLength, startX, startY   
+		//	2b. else, append the current run and start a new one at this pixel
 		for (int y = 0; y < height; y++) {
 			for (int x = 0; x < width; x++) {
-				if (image.getRed(x, y) == image.getRed(startX, startY)) {
+				short r = image.getRed(x, y);
+				short g = image.getGreen(x, y);
+				short b = image.getBlue(x, y);
+				if (r == red && g == green && b == blue) {
 					runLength += 1;
 				} else {  // run ended
-					int run[] = { runLength,
-												image.getRed(startX, startY),
-												image.getGreen(startX, startY),
-												image.getBlue(startX, startY) };
-					runs.insertBack(run);
+					runs.append(runLength, red, green, blue);
 					runLength = 1;
-					startX = x;
-					startY = y;
+					red = r;
+					green = g;
+					blue = b;
 				}
 			}
 		}
-		// insert the last run after loop ends
-		if (runLength > 1) {  // more than 1 pixel run when exiting loop
-			int[] run = { runLength, 
-										image.getRed(startX, startY), 
-										image.getGreen(startX, startY), 
-										image.getBlue(startX, startY) };
-			runs.insertBack(run);
-		} else {  // single run of last pixel
-			int[] run = { runLength,
-										image.getRed(width-1, height-1),
-										image.getGreen(width-1, height-1),
-										image.getBlue(width-1, height-1) };
-			runs.insertBack(run);
-		}
+		// append the last run after loop ends
+		runs.append(runLength, red, green, blue);
+		check();
+	}
+
+	/**
+	 *  RunLengthEncoding() (with two parameters) creates the same run-length
+	 *  encoding of a PixImage as the one-parameter constructor, but splits the
+	 *  rows of the image into bands that are encoded concurrently by a
+	 *  fork/join pool, each into its own runs.  The bands are then joined in
+	 *  order; where a band ends with the color the next one starts with, the
+	 *  two runs are merged into one, so the encoding is fully compressed.
+	 *
+	 *  @param image is the PixImage to run-length encode.
+	 *  @param parallelism the number of worker threads to use.  Values less
+	 *  than 2 run the single-threaded constructor.
+	 */
+	public RunLengthEncoding(final PixImage image, int parallelism) {
+		this(image.getWidth(), image.getHeight(),
+				 encodeBands(image, parallelism));
 		check();
 	}
 
+	// returns the runs of image, encoded by bands of rows on parallelism
+	// threads
+	private static RunStore encodeBands(final PixImage image, int parallelism) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		if (parallelism < 2 || height < 2 * MIN_BAND_ROWS) {
+			return new RunLengthEncoding(image).runs;
+		}
+		// a few bands per worker keep the threads busy if some bands are slower
+		final int bandRows = Math.max(MIN_BAND_ROWS, height / (parallelism * 4));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<ForkJoinTask<RunStore>> bands =
+				new ArrayList<ForkJoinTask<RunStore>>();
+			for (int start = 0; start < height; start += bandRows) {
+				final int first = start;
+				bands.add(pool.submit(new Callable<RunStore>() {
+						public RunStore call() {
+							int end = Math.min(first + bandRows, height);
+							RunLengthEncoder encoder = new RunLengthEncoder(width, end - first);
+							byte[] row = new byte[3 * width];
+							for (int y = first; y < end; y++) {
+								image.getRow(y, row, 0);
+								encoder.appendRow(row, 0);
+							}
+							return encoder.finish().runs;
+						}
+					}));
+			}
+			// stitch the bands together in order
+			RunStore runs = bands.get(0).join();
+			for (int i = 1; i < bands.size(); i++) {
+				runs.appendAll(bands.get(i).join());
+			}
+			return runs;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	/**
 	 *  check() walks through the run-length encoding and prints an error message
 	 *  if two consecutive runs have the same RGB intensities, or if the sum of
 	 *  all run lengths does not equal the number of pixels in the image.
 	 */
 	public void check() {
-		RunIterator it = iterator();
+		RunCursor run = cursor();
 		int sum = 0;
-		short prevR = Short.MIN_VALUE;
-		short prevG = Short.MIN_VALUE;
-		short prevB = Short.MIN_VALUE;
-		while (it.hasNext()) {
-			int[] run = it.next();
-			if (prevR == run[1] || prevG == run[2] || prevB == run[3]) {
+		int prevR = Integer.MIN_VALUE;
+		int prevG = Integer.MIN_VALUE;
+		int prevB = Integer.MIN_VALUE;
+		while (run.advance()) {
+			if (prevR == run.red() && prevG == run.green() && prevB == run.blue()) {
 				System.err.println("Two consecutive runs have same RGB intensities.");
 				return;
 			}
-			if (run[0] < 1) {
+			if (run.length() < 1) {
 				System.err.println("Run length less than 1.");
 			}
-			prevR = (short) run[1];
-			prevG = (short) run[2];
-			prevB = (short) run[3];
-			sum += run[0];
+			prevR = run.red();
+			prevG = run.green();
+			prevB = run.blue();
+			sum += run.length();
 		}
 		if (sum != width * height) {
 			System.err.println("Sum of run lengths (" + sum + ") does not equal " +
@@ -306,154 +498,263 @@ public class RunLengthEncoding implements Iterable {
 			System.err.println("x and/or y invalid");
 			return;
 		}
-		// find the run pixel is in by comparing its pixel position to the
-		// sum of run lengths encountered so far
-		int pixelPosition = x + (y * width) + 1;
-		int sumRunLength = 0;
+		// find the run pixel is in with a binary search over run starts
+		int pixelPosition = x + (y * width);
+		int i = runs.find(pixelPosition);  // index of the run containing the pixel
+		int runStart = runs.start(i);      // position of the first pixel of run i
+		// if intensity is same for existing pixel and new pixel, do nothing
+		if (runs.hasColor(i, red, green, blue)) {
+			return;
+		}
+		rowRuns = null;  // the runs are about to change
+		unindexedReads = 0;
+
+		int runLength = runs.length(i);
+		boolean isFirst = pixelPosition == runStart;
+		boolean isLast = pixelPosition == runStart + runLength - 1;
+		// whether the pixel joins the previous or next run after the change
+		boolean joinsPrev = isFirst && i > 0 &&
+												runs.hasColor(i - 1, red, green, blue);
+		boolean joinsNext = isLast && i + 1 < runs.size() &&
+												runs.hasColor(i + 1, red, green, blue);
+
+		// Run lengths are implied by where the next run starts, so each case
+		// only moves run starts or inserts and removes runs.
+		// single pixel run
+		if (runLength == 1) {
+			if (joinsPrev && joinsNext) {
+				// combine this run and the next into the previous run
+				runs.remove(i, 2);
+			} else if (joinsPrev) {
+				runs.remove(i, 1);
+			} else if (joinsNext) {
+				runs.setStart(i + 1, pixelPosition);
+				runs.remove(i, 1);
+			} else {
+				runs.setColor(i, red, green, blue);
+			}
+		}
+		// pixel is first pixel of run (run length > 1)
+		else if (isFirst) {
+			runs.setStart(i, pixelPosition + 1);
+			if (!joinsPrev) {
+				runs.insert(i, pixelPosition, red, green, blue);
+			}
+		}
+		// pixel is last pixel of run (run length > 1)
+		else if (isLast) {
+			if (joinsNext) {
+				runs.setStart(i + 1, pixelPosition);
+			} else {
+				runs.insert(i + 1, pixelPosition, red, green, blue);
+			}
+		}
+		// pixel somewhere in middle: split the run into start, mid, end
+		else {
+			runs.insert(i + 1, pixelPosition, red, green, blue);
+			runs.insert(i + 2, pixelPosition + 1,
+									runs.red(i), runs.green(i), runs.blue(i));
+		}
+	}
 
-		int[] newRun = { 1, red, green, blue }; // new run to insert
-		DListNode run = runs.head.next; // run starts at first run after sentinel
 
-		while (sumRunLength + run.item[0] < pixelPosition) {
-			sumRunLength += run.item[0];
-			run = run.next;
+	/**
+	 *  boxBlur() returns a blurred version of the image this run-length
+	 *  encoding represents, exactly the image PixImage.boxBlur() would return,
+	 *  but computed without ever converting to a PixImage.
+	 *
+	 *  Each output row depends on three input rows.  Across a stretch of
+	 *  columns where none of those rows changes color, every column has the
+	 *  same sum, so every output pixel of the stretch except the first and the
+	 *  last has the same value and becomes part of a single run.  Only the
+	 *  pixels next to a color change or the image border are computed one at
+	 *  a time, so the work is proportional to the number of runs, not the
+	 *  number of pixels.
+	 *
+	 *  @param numIterations the number of iterations of box blurring.  If it is
+	 *  zero or negative, "this" RunLengthEncoding is returned (not a copy).
+	 *  @return a blurred version of the encoded image.
+	 */
+	public RunLengthEncoding boxBlur(int numIterations) {
+		RunLengthEncoding blurred = this;
+		for (int i = 0; i < numIterations; i++) {
+			blurred = blurred.blurOnce();
 		}
-		// if intensity is same for existing pixel and new pixel, do nothing
-		if (run.item[1] == red && run.item[2] == green && run.item[3] == blue) {
-			return; 
+		return blurred;
+	}
+
+	// returns the encoding of one box blur iteration of this image
+	private RunLengthEncoding blurOnce() {
+		RunLengthEncoder encoder = new RunLengthEncoder(width, height);
+		// a sliding window of the rows above, at, and below the output row
+		RowRuns above = new RowRuns(width);
+		RowRuns row = new RowRuns(width);
+		RowRuns below = new RowRuns(width);
+		ColumnSums sums = new ColumnSums(width);
+		row.read(runs, 0, width);
+		for (int y = 0; y < height; y++) {
+			if (y + 1 < height) {
+				below.read(runs, y + 1, width);
+			}
+			int rows = 1 + (y > 0 ? 1 : 0) + (y + 1 < height ? 1 : 0);
+			sums.add(y > 0 ? above : null, row, y + 1 < height ? below : null);
+			blurRow(sums, rows, encoder);
+			RowRuns spare = above;
+			above = row;
+			row = below;
+			below = spare;
 		}
+		return encoder.finish();
+	}
 
-		// pixel is first pixel of run or single pixel run
-		if (sumRunLength + 1 == pixelPosition) {
-			// not on first run
-			if (run.prev != runs.head) {
-				// single pixel run
-				if (run.item[0] == 1) {
-					// pixel matches previous and next run's pixels
-					if (run.next != runs.head &&
-							run.prev.item[1] == red   && run.next.item[1] == red &&
-							run.prev.item[2] == green && run.next.item[2] == green &&
-							run.prev.item[3] == blue  && run.next.item[3] == blue) {
-						// combine runs into previous run, link from previous run
-						// to run after next run
-						run.prev.item[0] += 1 + run.next.item[0];
-						run.prev.next = run.next.next;
-						run.next.next.prev = run.prev;
-					}
-					// pixel matches previous run's pixel
-					else if (run.prev.item[1] == red && run.prev.item[2] == green &&
-									 run.prev.item[3] == blue) {
-						run.prev.item[0]++;
-						// remove the run
-						run.prev.next = run.next;
-						run.next.prev = run.prev;
-					}
-					// pixel matches next run's pixel
-					else if (run.next != runs.head && run.next.item[1] == red && 
-									 run.next.item[2] == green && run.next.item[3] == blue) {
-						run.next.item[0]++;
-						// remove the run
-						run.prev.next = run.next;
-						run.next.prev = run.prev;
-					}
-					// pixel matches neither run
-					else {
-						run.item[1] = red;
-						run.item[2] = green;
-						run.item[3] = blue;
-					}
+	// appends one blurred row to encoder, given the column sums of the rows in
+	// its window and the number of those rows
+	private void blurRow(ColumnSums sums, int rows, RunLengthEncoder encoder) {
+		for (int k = 0; k < sums.count; k++) {
+			int start = k > 0 ? sums.ends[k - 1] : 0;
+			int end = sums.ends[k];
+			encoder.appendSpan(1, sums.blurredPixel(k, start, rows, width));
+			if (end - start > 2) {
+				// the left, center, and right columns all have sum k
+				int divisor = rows * 3;
+				int color = ((3 * sums.red[k] / divisor) << 16) |
+										((3 * sums.green[k] / divisor) << 8) |
+										(3 * sums.blue[k] / divisor);
+				encoder.appendSpan(end - start - 2, color);
+			}
+			if (end - start > 1) {
+				encoder.appendSpan(1, sums.blurredPixel(k, end - 1, rows, width));
+			}
+		}
+	}
+
+	/**
+	 *  A RowRuns holds one row of an image as a list of segments of equal
+	 *  color:  segment k covers columns ends[k - 1]...ends[k] - 1 (starting
+	 *  from column 0) and has packed RGB value colors[k].
+	 */
+	private static class RowRuns {
+		int count;
+		final int[] ends;
+		final int[] colors;
+
+		RowRuns(int width) {
+			ends = new int[width];
+			colors = new int[width];
+		}
+
+		// loads row y from runs, splitting runs at the row boundaries
+		void read(RunStore runs, int y, int width) {
+			int rowStart = y * width;
+			int rowEnd = rowStart + width;
+			count = 0;
+			for (int i = runs.find(rowStart);
+					 i < runs.size() && runs.start(i) < rowEnd; i++) {
+				ends[count] =
+					Math.min(runs.start(i) + runs.length(i), rowEnd) - rowStart;
+				colors[count] = runs.color(i);
+				count++;
+			}
+		}
+	}
+
+	/**
+	 *  A ColumnSums holds, for one output row, the sum of each color over the
+	 *  rows of its window, column by column, as a list of segments in the
+	 *  format of RowRuns.  Neighboring segments always have different sums.
+	 */
+	private static class ColumnSums {
+		int count;
+		final int[] ends;
+		final int[] red;
+		final int[] green;
+		final int[] blue;
+
+		ColumnSums(int width) {
+			ends = new int[width];
+			red = new int[width];
+			green = new int[width];
+			blue = new int[width];
+		}
+
+		// merges the segments of up to three rows; absent rows are null
+		void add(RowRuns above, RowRuns row, RowRuns below) {
+			count = 0;
+			int a = 0;
+			int m = 0;
+			int b = 0;
+			int width = row.ends[row.count - 1];
+			int x = 0;
+			while (x < width) {
+				int end = row.ends[m];
+				int color = row.colors[m];
+				int r = color >> 16;
+				int g = (color >> 8) & 0xFF;
+				int bl = color & 0xFF;
+				if (above != null) {
+					end = Math.min(end, above.ends[a]);
+					color = above.colors[a];
+					r += color >> 16;
+					g += (color >> 8) & 0xFF;
+					bl += color & 0xFF;
 				}
-				// run length > 1
-				else {
-					// matches previous run's pixels
-					if (run.prev.item[1] == red && run.prev.item[2] == green &&
-						 	run.prev.item[3] == blue) {
-						run.prev.item[0]++;
-						run.item[0]--;
-					} 
-					// doesn't match previous run's pixels
-					else {
-						DListNode before = new DListNode(newRun, run.prev, run);
-						run.item[0]--;
-						// link new node
-						run.prev.next = before;
-						run.prev = before;
-					}
+				if (below != null) {
+					end = Math.min(end, below.ends[b]);
+					color = below.colors[b];
+					r += color >> 16;
+					g += (color >> 8) & 0xFF;
+					bl += color & 0xFF;
 				}
-			}
-			// on first run
-			else {
-				// single pixel run
-				if (run.item[0] == 1) {
-					// check if pixel matches next run's pixels
-					if (run.next.item[1] == red && run.next.item[2] == green &&
-							run.next.item[3] == blue) {
-						run.next.item[0]++;
-						// remove the run
-						run.prev.next = run.next;
-						run.next.prev = run.prev;
-					}
-					// pixel doesn't match
-					else {
-						run.item[1] = red;
-						run.item[2] = green;
-						run.item[3] = blue;
-					}
+				if (count > 0 && red[count - 1] == r && green[count - 1] == g &&
+						blue[count - 1] == bl) {
+					ends[count - 1] = end;
+				} else {
+					ends[count] = end;
+					red[count] = r;
+					green[count] = g;
+					blue[count] = bl;
+					count++;
 				}
-				// run length > 1, insert new run before
-				else {
-					DListNode before = new DListNode(newRun, run.prev, run);
-					run.item[0]--;
-					// link new node
-					before.prev = run.prev;
-					before.next = run;
-					run.prev.next = before;
-					run.prev = before;
+				x = end;
+				if (row.ends[m] == x) {
+					m++;
 				}
-			}
-		}
-		// pixel is last pixel of run (run length > 1)
-		else if (sumRunLength + run.item[0] == pixelPosition) {
-			// not on last run, and pixel matches next run's pixels
-			if (run.next != runs.head && run.next.item[1] == red &&
-					run.next.item[2] == green && run.next.item[3] == blue) {
-					run.next.item[0]++;
-					run.item[0]--;
+				if (above != null && above.ends[a] == x) {
+					a++;
 				}
-			// on the last run or pixel does not match next run's pixels,
-			// insert new run after
-			else {
-				DListNode after = new DListNode(newRun, run, run.next);
-				run.item[0]--;
-				// link new node
-				after.prev = run;
-				after.next = run.next;
-				run.next.prev = after;
-				run.next = after;
+				if (below != null && below.ends[b] == x) {
+					b++;
 				}
+			}
 		}
-		// pixel somewhere in middle
-		else {
-			// nodes split into 3: start, mid, end
-			DListNode next = run.next;    // node after the original node
-			int runLength = run.item[0];  // length of current run
-			int startRunLength = pixelPosition - sumRunLength - 1;
-			int endRunLength = runLength - startRunLength - 1;
-			int[] endRun = { endRunLength, run.item[1], run.item[2], run.item[3] };
-
-			DListNode start = run;
-			start.item[0] = startRunLength;
-			DListNode mid = new DListNode(newRun, start, null);
-			DListNode end = new DListNode(endRun, mid, next);
-
-			// link the nodes
-			start.next = mid;
-			mid.next = end;
+
+		// returns the packed blurred color of column x, which lies in segment
+		// k; neighbors beyond the image borders are left out of the average
+		int blurredPixel(int k, int x, int rows, int width) {
+			int start = k > 0 ? ends[k - 1] : 0;
+			int r = red[k];
+			int g = green[k];
+			int b = blue[k];
+			int columns = 1;
+			if (x > 0) {
+				int left = x - 1 >= start ? k : k - 1;
+				r += red[left];
+				g += green[left];
+				b += blue[left];
+				columns++;
+			}
+			if (x + 1 < width) {
+				int right = x + 1 < ends[k] ? k : k + 1;
+				r += red[right];
+				g += green[right];
+				b += blue[right];
+				columns++;
+			}
+			int divisor = rows * columns;
+			return ((r / divisor) << 16) | ((g / divisor) << 8) | (b / divisor);
 		}
-		check();
 	}
 
-
 	/**
 	 * TEST CODE:  YOU DO NOT NEED TO FILL IN ANY METHODS BELOW THIS POINT.
 	 * You are welcome to add tests, though.  Methods below this point will not
@@ -499,6 +800,26 @@ public class RunLengthEncoding implements Iterable {
 		return image;
 	}
 
+	/**
+	 * sameRuns() checks whether two run-length encodings have exactly the same
+	 * runs.
+	 *
+	 * @param rle1 the first run-length encoding.
+	 * @param rle2 the second run-length encoding.
+	 * @return true if both encodings consist of identical runs.
+	 */
+	private static boolean sameRuns(RunLengthEncoding rle1,
+																	RunLengthEncoding rle2) {
+		RunIterator it1 = rle1.iterator();
+		RunIterator it2 = rle2.iterator();
+		while (it1.hasNext() && it2.hasNext()) {
+			if (!Arrays.equals(it1.next(), it2.next())) {
+				return false;
+			}
+		}
+		return !it1.hasNext() && !it2.hasNext();
+	}
+
 	/**
 	 * setAndCheckRLE() sets the given coordinate in the given run-length
 	 * encoding to the given value and then checks whether the resulting
@@ -690,6 +1011,229 @@ public class RunLengthEncoding implements Iterable {
 		doTest(rle4.toPixImage().equals(image4),
 					 "Setting RLE4[1][0] = 1 fails.");
 
+		System.out.println("Testing random setPixel() calls on a 7x5 encoding.");
+		PixImage image5 = new PixImage(7, 5);
+		RunLengthEncoding rle5 = new RunLengthEncoding(image5);
+		Random random = new Random(0);
+		boolean same = true;
+		for (int i = 0; i < 2000; i++) {
+			int x = random.nextInt(7);
+			int y = random.nextInt(5);
+			// few colors, differing in one channel, so runs often merge
+			short g = (short) (random.nextInt(3) * 100);
+			short b = (short) (random.nextInt(2) * 100);
+			rle5.setPixel(x, y, (short) 7, g, b);
+			image5.setPixel(x, y, (short) 7, g, b);
+			same = same && rle5.toPixImage().equals(image5);
+		}
+		doTest(same, "Random setPixel() calls on RLE5 fail.");
+
+		System.out.println("Testing getRed(), getGreen(), and getBlue() on RLE5 " +
+											 "between setPixel() calls.");
+		boolean sameGet = true;
+		for (int i = 0; i < 200; i++) {
+			int x = random.nextInt(7);
+			int y = random.nextInt(5);
+			sameGet = sameGet && rle5.getRed(x, y) == image5.getRed(x, y) &&
+				rle5.getGreen(x, y) == image5.getGreen(x, y) &&
+				rle5.getBlue(x, y) == image5.getBlue(x, y);
+			x = random.nextInt(7);
+			y = random.nextInt(5);
+			short g = (short) (random.nextInt(3) * 100);
+			rle5.setPixel(x, y, (short) 7, g, (short) 0);
+			image5.setPixel(x, y, (short) 7, g, (short) 0);
+		}
+		for (int y = 0; y < 5; y++) {
+			for (int x = 0; x < 7; x++) {
+				sameGet = sameGet && rle5.getRed(x, y) == image5.getRed(x, y) &&
+					rle5.getGreen(x, y) == image5.getGreen(x, y) &&
+					rle5.getBlue(x, y) == image5.getBlue(x, y);
+			}
+		}
+		doTest(sameGet, "getRed()/getGreen()/getBlue() differ from the image.");
+		doTest(sameRuns(rle5, new RunLengthEncoding(image5)),
+					 "RLE5 is not fully compressed after setPixel() calls.");
+
+		System.out.println("Testing RunLengthEncoder on a 3x3 image.");
+		RunLengthEncoder encoder = new RunLengthEncoder(3, 3);
+		for (int y = 0; y < 3; y++) {
+			int[] row = new int[3];
+			for (int x = 0; x < 3; x++) {
+				row[x] = (image2.getRed(x, y) << 16) | (image2.getGreen(x, y) << 8) |
+								 image2.getBlue(x, y);
+			}
+			encoder.appendRow(row, 0);
+		}
+		doTest(sameRuns(encoder.finish(), new RunLengthEncoding(image2)),
+					 "RunLengthEncoder differs from RunLengthEncoding(image2).");
+
+		System.out.println("Testing the parallel constructor against the " +
+											 "sequential one.");
+		// long runs of few colors; the black rows at the top and bottom make
+		// runs that span several bands
+		PixImage striped = new PixImage(37, 150);
+		Random stripes = new Random(23);
+		for (int y = 40; y < 120; y++) {
+			for (int x = 0; x < 37; x++) {
+				short level = (short) (stripes.nextInt(10) == 0 ? 180 : 90);
+				striped.setPixel(x, y, level, level, (short) (y / 100 * 50));
+			}
+		}
+		boolean sameParallel = true;
+		for (int threads = 1; threads <= 4; threads++) {
+			sameParallel = sameParallel &&
+				sameRuns(new RunLengthEncoding(striped, threads),
+								 new RunLengthEncoding(striped)) &&
+				sameRuns(new RunLengthEncoding(new PixImage(5, 200), threads),
+								 new RunLengthEncoding(new PixImage(5, 200)));
+		}
+		doTest(sameParallel, "Parallel RunLengthEncoding differs from sequential.");
+
+		System.out.println("Testing cursor() against iterator() on RLE5.");
+		RunIterator it5 = rle5.iterator();
+		boolean sameCursor = true;
+		for (RunCursor run = rle5.cursor(); run.advance(); ) {
+			int[] expected = it5.next();
+			sameCursor = sameCursor && run.length() == expected[0] &&
+				run.red() == expected[1] && run.green() == expected[2] &&
+				run.blue() == expected[3];
+		}
+		doTest(sameCursor && !it5.hasNext(), "cursor() disagrees with iterator().");
+
+		System.out.println("Testing boxBlur() against PixImage.boxBlur().");
+		boolean sameBlur = true;
+		for (int n = 0; n <= 3; n++) {
+			sameBlur = sameBlur &&
+				sameRuns(rle5.boxBlur(n), new RunLengthEncoding(image5.boxBlur(n)));
+		}
+		PixImage[] shapes = { array2PixImage(new int[][] { { 0, 30, 60 } }),
+													array2PixImage(new int[][] { { 9 }, { 90 }, { 9 } }),
+													array2PixImage(new int[][] { { 200 } }) };
+		for (PixImage shape : shapes) {
+			sameBlur = sameBlur && sameRuns(new RunLengthEncoding(shape).boxBlur(2),
+																			new RunLengthEncoding(shape.boxBlur(2)));
+		}
+		doTest(sameBlur, "RunLengthEncoding.boxBlur() differs from PixImage.boxBlur().");
+
+		System.out.println("Testing TIFFDecoder on TIFFs of RLE5 written by " +
+											 "TIFFEncoder.");
+		try {
+			File file = File.createTempFile("rle5", ".tiff");
+			file.deleteOnExit();
+			TIFFEncoder.writeTIFF(rle5, file.getPath());
+			doTest(sameRuns(TIFFDecoder.readTIFFRLE(file.getPath()), rle5),
+						 "TIFFDecoder.readTIFFRLE() of a PackBits TIFF differs from RLE5.");
+			doTest(TIFFDecoder.readTIFFPix(file.getPath()).equals(image5),
+						 "TIFFDecoder.readTIFFPix() of a PackBits TIFF differs from RLE5.");
+			TIFFEncoder.writeTIFF(image5, file.getPath());
+			doTest(TIFFDecoder.readTIFFPix(file.getPath()).equals(image5),
+						 "TIFFDecoder.readTIFFPix() of an uncompressed TIFF differs from " +
+						 "RLE5.");
+
+			File strips = File.createTempFile("rle5", ".tiff");
+			strips.deleteOnExit();
+			TIFFEncoder.writeTIFF(rle5, strips.getPath(), 2, 3);
+			doTest(sameRuns(TIFFDecoder.readTIFFRLE(strips.getPath()), rle5),
+						 "TIFF of RLE5 in two-row strips differs from RLE5.");
+			TIFFEncoder.writeTIFF(rle5, file.getPath(), 2, 1);
+			doTest(Arrays.equals(Files.readAllBytes(strips.toPath()),
+													 Files.readAllBytes(file.toPath())),
+						 "Parallel and sequential strip TIFFs of RLE5 differ.");
+			TIFFEncoder.writeTIFF(image5, strips.getPath(), 3);
+			doTest(TIFFDecoder.readTIFFPix(strips.getPath()).equals(image5),
+						 "Uncompressed TIFF of RLE5 in three-row strips differs from RLE5.");
+			TIFFEncoder.writePlanarTIFF(rle5, strips.getPath(), 2);
+			doTest(sameRuns(TIFFDecoder.readTIFFRLE(strips.getPath()), rle5),
+						 "Planar TIFF of RLE5 differs from RLE5.");
+
+			// images with no pixels, which a run-length encoding can't hold
+			int[][] emptySizes = { { 0, 3 }, { 3, 0 }, { 0, 0 } };
+			for (int[] size : emptySizes) {
+				PixImage empty = new PixImage(size[0], size[1]);
+				TIFFEncoder.writeTIFF(empty, file.getPath());
+				doTest(empty.equals(TIFFDecoder.readTIFFPix(file.getPath())),
+							 "TIFF of a " + size[0] + "x" + size[1] +
+							 " image does not read back.");
+				TIFFEncoder.writeTIFF(empty, file.getPath(), 2);
+				doTest(empty.equals(TIFFDecoder.readTIFFPix(file.getPath())),
+							 "TIFF of a " + size[0] + "x" + size[1] +
+							 " image in two-row strips does not read back.");
+			}
+		} catch (IOException e) {
+			doTest(false, "TIFFDecoder threw " + e);
+		}
+
+		System.out.println("Testing RunLengthFile on RLE5 and a striped image.");
+		try {
+			File file = File.createTempFile("rle5", ".rle");
+			file.deleteOnExit();
+			RunLengthFile.write(rle5, file.getPath());
+			doTest(sameRuns(RunLengthFile.read(file.getPath()), rle5),
+						 "RunLengthFile.read() differs from RLE5.");
+
+			// a run longer than 16,384 pixels needs a three-byte varint
+			PixImage wide = new PixImage(300, 100);
+			wide.fillSpan(7, 60, 200, (short) 1, (short) 2, (short) 3);
+			RunLengthEncoding wideRLE = new RunLengthEncoding(wide);
+			RunLengthFile.write(wideRLE, file.getPath());
+			RunLengthFile mapped = RunLengthFile.open(file.getPath());
+			boolean sameFile = mapped.getWidth() == 300 &&
+				mapped.getHeight() == 100 && mapped.getRunCount() == 3;
+			RunLengthFile.Cursor fileRun = mapped.cursor();
+			for (RunCursor run = wideRLE.cursor(); run.advance(); ) {
+				sameFile = sameFile && fileRun.advance() &&
+					fileRun.start() == run.start() && fileRun.length() == run.length() &&
+					fileRun.red() == run.red() && fileRun.green() == run.green() &&
+					fileRun.blue() == run.blue();
+			}
+			sameFile = sameFile && !fileRun.advance() &&
+				sameRuns(mapped.toRunLengthEncoding(), wideRLE);
+			mapped.close();
+			doTest(sameFile, "RunLengthFile cursor differs from the encoding.");
+			doTest(file.length() == 16 + 3 * 3 + 3 + 2 + 2,
+						 "RunLengthFile of a 3-run image has the wrong size: " +
+						 file.length());
+
+			PixImage edges = wide.sobelEdges();
+			RunLengthFile.write(new RunLengthEncoding(edges), file.getPath());
+			doTest(RunLengthFile.read(file.getPath()).toPixImage().equals(edges),
+						 "RunLengthFile.read() of a grayscale image differs from it.");
+
+			// every length byte of the three-run file says another byte follows
+			RunLengthFile.write(wideRLE, file.getPath());
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			Arrays.fill(bytes, bytes.length - 7, bytes.length, (byte) 0x80);
+			Files.write(file.toPath(), bytes);
+			boolean rejected = false;
+			try {
+				RunLengthFile.read(file.getPath());
+			} catch (IOException e) {
+				rejected = true;
+			}
+			doTest(rejected,
+						 "RunLengthFile.read() accepted a malformed run length.");
+
+			// the one-pixel run of a 1x1 image, stretched to five bytes whose
+			// last has bits that don't fit in an int
+			RunLengthFile.write(new RunLengthEncoding(1, 1), file.getPath());
+			bytes = Files.readAllBytes(file.toPath());
+			bytes = Arrays.copyOf(bytes, bytes.length + 4);
+			byte[] overlong = { (byte) 0x81, (byte) 0x80, (byte) 0x80,
+													(byte) 0x80, (byte) 0x10 };
+			System.arraycopy(overlong, 0, bytes, bytes.length - 5, 5);
+			Files.write(file.toPath(), bytes);
+			rejected = false;
+			try {
+				RunLengthFile.read(file.getPath());
+			} catch (IOException e) {
+				rejected = true;
+			}
+			doTest(rejected,
+						 "RunLengthFile.read() accepted an overflowing run length.");
+		} catch (IOException e) {
+			doTest(false, "RunLengthFile threw " + e);
+		}
+
 		// additional cases
 		// testSimpleConstructors();
 		// testSetPixel();
@@ -0,0 +1,363 @@
+/* RunLengthFile.java */
+
+/**
+ *  The RunLengthFile class stores a RunLengthEncoding in a file of its own
+ *  format, and reads it back without decoding any pixels.  A TIFF file
+ *  written by TIFFEncoder breaks runs at the end of every row and into
+ *  packets of at most 128 pixels, so reading one back means decoding every
+ *  row and encoding it again.  A run-length file holds the runs themselves:
+ *
+ *      bytes 0-3     the characters "RLE3", or "RLE1" if every run is gray
+ *      bytes 4-7     the width of the image
+ *      bytes 8-11    the height of the image
+ *      bytes 12-15   the number of runs, n
+ *      next 3n       the red, green, and blue intensities of each run in turn
+ *                    (in an "RLE1" file, n bytes:  each run's one intensity)
+ *      the rest      the length of each run in turn, as a varint
+ *
+ *  Integers are big-endian.  A varint stores a length seven bits at a time,
+ *  least significant first, in the low bits of each byte; the high bit is set
+ *  in every byte but the last.  Runs of fewer than 128 pixels take one byte,
+ *  runs of fewer than 16,384 take two, and so on, so a run usually costs four
+ *  or five bytes in all, or two or three in a grayscale image such as the
+ *  output of sobelEdges().  The colors come before the lengths so that both
+ *  sections start at offsets known from the header.
+ *
+ *  open() memory-maps a file and returns a RunLengthFile whose cursor()
+ *  reads the runs straight out of the mapping as it advances, so opening
+ *  even a huge file takes no time and no heap.  toRunLengthEncoding() (or
+ *  read()) loads every run into a RunLengthEncoding.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class RunLengthFile implements Closeable {
+
+  private static final int MAGIC_GRAY = 0x524c4531;  // "RLE1"
+  private static final int MAGIC_RGB = 0x524c4533;   // "RLE3"
+  private static final int HEADER_SIZE = 16;
+
+  private final FileChannel channel;
+  private final int width;
+  private final int height;
+  private final int runCount;
+  private final int samples;         // intensities stored per run, 1 or 3
+  private final ByteBuffer colors;   // samples * runCount bytes
+  private final ByteBuffer lengths;  // the varints, to the end of the file
+
+  /**
+   *  RunLengthFile() reads the header of a file and maps its two sections.
+   *
+   *  @param channel a channel open for reading the file.
+   *  @throws IOException if the file is not a run-length file.
+   */
+  private RunLengthFile(FileChannel channel) throws IOException {
+    this.channel = channel;
+    long size = channel.size();
+    if (size < HEADER_SIZE) {
+      throw new IOException("not a run-length file");
+    }
+    ByteBuffer header =
+      channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+    int magic = header.getInt();
+    if (magic == MAGIC_GRAY) {
+      samples = 1;
+    } else if (magic == MAGIC_RGB) {
+      samples = 3;
+    } else {
+      throw new IOException("not a run-length file");
+    }
+    width = header.getInt();
+    height = header.getInt();
+    runCount = header.getInt();
+    long pixels = (long) width * height;
+    if (width <= 0 || height <= 0 || pixels > Integer.MAX_VALUE ||
+        runCount <= 0 || runCount > pixels) {
+      throw new IOException("run-length file has a malformed header");
+    }
+    long colorBytes = (long) samples * runCount;
+    long lengthBytes = size - HEADER_SIZE - colorBytes;
+    if (lengthBytes < runCount) {  // every varint takes at least one byte
+      throw new IOException("run-length file is truncated");
+    }
+    if (colorBytes > Integer.MAX_VALUE || lengthBytes > Integer.MAX_VALUE) {
+      throw new IOException("run-length file is too large to map");
+    }
+    colors = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                         colorBytes);
+    lengths = channel.map(FileChannel.MapMode.READ_ONLY,
+                          HEADER_SIZE + colorBytes, lengthBytes);
+  }
+
+  /**
+   *  write() writes a run-length encoding to a run-length file.
+   *
+   *  @param rle the run-length encoding to write.
+   *  @param filename the name of the file to write.
+   *  @throws IOException if the file cannot be written.
+   */
+  public static void write(RunLengthEncoding rle, String filename)
+                          throws IOException {
+    int runCount = 0;
+    boolean gray = true;
+    for (RunCursor run = rle.cursor(); run.advance(); ) {
+      runCount++;
+      gray = gray && run.red() == run.green() && run.red() == run.blue();
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+           new FileOutputStream(filename), 1 << 16))) {
+      out.writeInt(gray ? MAGIC_GRAY : MAGIC_RGB);
+      out.writeInt(rle.getWidth());
+      out.writeInt(rle.getHeight());
+      out.writeInt(runCount);
+      for (RunCursor run = rle.cursor(); run.advance(); ) {
+        out.writeByte(run.red());
+        if (!gray) {
+          out.writeByte(run.green());
+          out.writeByte(run.blue());
+        }
+      }
+      for (RunCursor run = rle.cursor(); run.advance(); ) {
+        int length = run.length();
+        while (length >= 0x80) {
+          out.writeByte((length & 0x7F) | 0x80);
+          length >>>= 7;
+        }
+        out.writeByte(length);
+      }
+    }
+  }
+
+  /**
+   *  open() opens a run-length file for reading.  The file stays open, and
+   *  mapped, until the RunLengthFile is closed.
+   *
+   *  @param filename the name of the file to read.
+   *  @return a RunLengthFile for the file.
+   *  @throws IOException if the file cannot be read or is not a run-length
+   *  file.
+   */
+  public static RunLengthFile open(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename),
+                                           StandardOpenOption.READ);
+    try {
+      return new RunLengthFile(channel);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   *  read() reads a run-length file into a RunLengthEncoding.
+   *
+   *  @param filename the name of the file to read.
+   *  @return the RunLengthEncoding stored in the file.
+   *  @throws IOException if the file cannot be read or is malformed.
+   */
+  public static RunLengthEncoding read(String filename) throws IOException {
+    try (RunLengthFile file = open(filename)) {
+      return file.toRunLengthEncoding();
+    }
+  }
+
+  /**
+   *  getWidth() returns the width of the image stored in the file.
+   *
+   *  @return the width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   *  getHeight() returns the height of the image stored in the file.
+   *
+   *  @return the height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   *  getRunCount() returns the number of runs stored in the file.
+   *
+   *  @return the number of runs.
+   */
+  public int getRunCount() {
+    return runCount;
+  }
+
+  /**
+   *  cursor() returns a Cursor positioned before the first run of the file.
+   *  Any number of Cursors may be used at once.
+   *
+   *  @return a Cursor over the runs of the file.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   *  toRunLengthEncoding() loads every run of the file into a new
+   *  RunLengthEncoding.
+   *
+   *  @return the RunLengthEncoding stored in the file.
+   *  @throws IOException if a run length is malformed, or the runs do not
+   *  cover the image exactly or are not fully compressed.
+   */
+  public RunLengthEncoding toRunLengthEncoding() throws IOException {
+    RunStore runs = new RunStore(runCount);
+    long pixels = 0;
+    int previous = -1;
+    Cursor run = cursor();
+    try {
+      while (run.advance()) {
+        int length = run.length();
+        int color = (run.red() << 16) | (run.green() << 8) | run.blue();
+        pixels += length;
+        if (length <= 0 || pixels > (long) width * height) {
+          throw new IOException("run-length file has a malformed run length");
+        }
+        if (color == previous) {
+          throw new IOException("run-length file has two runs of one color " +
+                                "in a row");
+        }
+        runs.append(length, run.red(), run.green(), run.blue());
+        previous = color;
+      }
+    } catch (IllegalStateException e) {
+      // advance() found a varint that is too long or runs off the file
+      throw new IOException("run-length file has a malformed run length", e);
+    }
+    if (pixels != (long) width * height) {
+      throw new IOException("run-length file's runs do not cover the image");
+    }
+    return new RunLengthEncoding(width, height, runs);
+  }
+
+  /**
+   *  close() closes the file.  Cursors must not be used afterward.
+   */
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   *  A Cursor steps through the runs of a run-length file, reading each run
+   *  from the mapped file only when it gets there.  It is used like a
+   *  RunCursor:
+   *
+   *      RunLengthFile.Cursor cursor = file.cursor();
+   *      while (cursor.advance()) {
+   *        ... cursor.length(), cursor.red(), cursor.green(), cursor.blue() ...
+   *      }
+   */
+  public class Cursor {
+    private final ByteBuffer colorBytes = colors.duplicate();
+    private final ByteBuffer lengthBytes = lengths.duplicate();
+    private int visited;  // runs advanced onto so far
+    private int start;
+    private int length;
+    private int red;
+    private int green;
+    private int blue;
+
+    private Cursor() {
+    }
+
+    /**
+     *  advance() moves this cursor to the next run.
+     *
+     *  @return true if the cursor is now on a run; false if every run has
+     *  already been visited.
+     *  @throws IllegalStateException if the file's lengths are malformed.
+     */
+    public boolean advance() {
+      if (visited == runCount) {
+        return false;
+      }
+      start += length;
+      visited++;
+      length = 0;
+      for (int shift = 0; ; shift += 7) {
+        if (!lengthBytes.hasRemaining()) {
+          throw new IllegalStateException("malformed run length in file");
+        }
+        int b = lengthBytes.get();
+        // The fifth byte holds bits 28-30 and must be the last; write()
+        // never ends a length with a zero byte after the first.
+        if ((shift == 28 && (b & 0xF8) != 0) || (b == 0 && shift > 0)) {
+          throw new IllegalStateException("malformed run length in file");
+        }
+        length |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          break;
+        }
+      }
+      red = colorBytes.get() & 0xFF;
+      if (samples == 3) {
+        green = colorBytes.get() & 0xFF;
+        blue = colorBytes.get() & 0xFF;
+      } else {
+        green = red;
+        blue = red;
+      }
+      return true;
+    }
+
+    /**
+     *  start() returns the position of the first pixel of the current run,
+     *  counting row by row from 0.
+     *
+     *  @return the position of the current run.
+     */
+    public int start() {
+      return start;
+    }
+
+    /**
+     *  length() returns the number of pixels in the current run.
+     *
+     *  @return the length of the current run.
+     */
+    public int length() {
+      return length;
+    }
+
+    /**
+     *  red() returns the red intensity of the current run.
+     *
+     *  @return the red intensity of the current run.
+     */
+    public int red() {
+      return red;
+    }
+
+    /**
+     *  green() returns the green intensity of the current run.
+     *
+     *  @return the green intensity of the current run.
+     */
+    public int green() {
+      return green;
+    }
+
+    /**
+     *  blue() returns the blue intensity of the current run.
+     *
+     *  @return the blue intensity of the current run.
+     */
+    public int blue() {
+      return blue;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/* RunStore.java */
+
+import java.util.Arrays;
+
+/**
+ *	A RunStore is a growable array of runs for a RunLengthEncoding.  Each run
+ *	occupies one slot of a long[]:  the position of its first pixel (counting
+ *	row by row from 0) in the upper 32 bits and the red, green, and blue
+ *	intensities in the lowest 24 bits.  Compared to a DList of int[4] items
+ *	there is no node object, no item array, and no pointers per run, and the
+ *	runs sit contiguously in memory.
+ *
+ *	Because runs are stored by start position rather than by length, the
+ *	slots are sorted, so find() locates the run holding any pixel with
+ *	a binary search.  A run's length is the distance to the next run's start,
+ *	which also means splitting or merging runs only inserts or removes slots;
+ *	no other run changes.
+ *
+ *	Runs are numbered 0...size() - 1.  A RunStore does not merge neighboring
+ *	runs of the same color; keeping the encoding compressed is up to the
+ *	RunLengthEncoding.
+ */
+
+class RunStore {
+	/**
+	 *	runs holds the packed runs in slots 0...size - 1; the remaining slots
+	 *	are spare capacity.  end is the position just past the last run, i.e.
+	 *	the total number of pixels.
+	 */
+	private long[] runs;
+	private int size;
+	private int end;
+
+	/**
+	 *	RunStore() constructs an empty RunStore with room for the specified
+	 *	number of runs before it has to grow.
+	 *	@param capacity the initial capacity.
+	 */
+	RunStore(int capacity) {
+		runs = new long[Math.max(capacity, 1)];
+		size = 0;
+		end = 0;
+	}
+
+	/**
+	 *	size() returns the number of runs in this RunStore.
+	 *	@return the number of runs.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *	start() returns the position of the first pixel of run i.
+	 */
+	int start(int i) {
+		return (int) (runs[i] >>> 32);
+	}
+
+	/**
+	 *	length() returns the number of pixels in run i.
+	 */
+	int length(int i) {
+		return (i + 1 < size ? start(i + 1) : end) - start(i);
+	}
+
+	/**
+	 *	find() returns the index of the run that holds the pixel at the
+	 *	specified position, in O(log size()) time.
+	 *	@param position a pixel position in the range 0...end - 1.
+	 */
+	int find(int position) {
+		return find(position, 0, size - 1);
+	}
+
+	/**
+	 *	find() (with three parameters) searches only runs low...high, which
+	 *	must include the run that holds the pixel at the specified position,
+	 *	in O(log (high - low + 1)) time.
+	 */
+	int find(int position, int low, int high) {
+		// the last slot that is <= key is the last run starting at or before
+		// position, whatever its color
+		long key = pack(position, 0xFFFFFF);
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (runs[mid] <= key) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 *	red(), green(), and blue() return the intensities of run i.
+	 */
+	int red(int i) {
+		return (int) (runs[i] >>> 16) & 0xFF;
+	}
+
+	int green(int i) {
+		return (int) (runs[i] >>> 8) & 0xFF;
+	}
+
+	int blue(int i) {
+		return (int) runs[i] & 0xFF;
+	}
+
+	/**
+	 *	color() returns the intensities of run i packed as red << 16 |
+	 *	green << 8 | blue.
+	 */
+	int color(int i) {
+		return (int) runs[i] & 0xFFFFFF;
+	}
+
+	/**
+	 *	hasColor() returns true if run i has the specified intensities.
+	 */
+	boolean hasColor(int i, int red, int green, int blue) {
+		return (int) (runs[i] & 0xFFFFFF) == rgb(red, green, blue);
+	}
+
+	/**
+	 *	append() adds a run after the last run.
+	 */
+	void append(int length, int red, int green, int blue) {
+		if (size == runs.length) {
+			grow();
+		}
+		runs[size] = pack(end, rgb(red, green, blue));
+		size++;
+		end += length;
+	}
+
+	/**
+	 *	appendAll() adds the runs of another RunStore after the last run, as if
+	 *	its pixels followed this RunStore's.  If the first of them has the
+	 *	color of the last run here, the two become one run, so two fully
+	 *	compressed RunStores join into a fully compressed one.
+	 */
+	void appendAll(RunStore other) {
+		int first = 0;
+		if (size > 0 && other.size > 0 && color(size - 1) == other.color(0)) {
+			first = 1;  // the last run here absorbs it by reaching the next start
+		}
+		int count = other.size - first;
+		if (size + count > runs.length) {
+			runs = Arrays.copyOf(runs, Math.max(size + count, runs.length * 2));
+		}
+		long shift = (long) end << 32;
+		for (int i = 0; i < count; i++) {
+			runs[size + i] = other.runs[first + i] + shift;
+		}
+		size += count;
+		end += other.end;
+	}
+
+	/**
+	 *	insert() adds a run starting at the specified position so that it
+	 *	becomes run i, moving runs i...size() - 1 up by one.  The new run takes
+	 *	its pixels from the end of run i - 1, so start must lie between the
+	 *	starts of runs i - 1 and i.
+	 */
+	void insert(int i, int start, int red, int green, int blue) {
+		if (size == runs.length) {
+			grow();
+		}
+		System.arraycopy(runs, i, runs, i + 1, size - i);
+		runs[i] = pack(start, rgb(red, green, blue));
+		size++;
+	}
+
+	/**
+	 *	remove() deletes count runs starting with run i, moving the later runs
+	 *	down to close the gap.  Run i - 1 absorbs the pixels of the removed runs.
+	 */
+	void remove(int i, int count) {
+		System.arraycopy(runs, i + count, runs, i, size - i - count);
+		size -= count;
+	}
+
+	/**
+	 *	setStart() moves the first pixel of run i, which moves the boundary
+	 *	between runs i - 1 and i.  The runs must stay at least one pixel long.
+	 */
+	void setStart(int i, int start) {
+		runs[i] = pack(start, (int) (runs[i] & 0xFFFFFF));
+	}
+
+	/**
+	 *	setColor() changes the intensities of run i.
+	 */
+	void setColor(int i, int red, int green, int blue) {
+		runs[i] = (runs[i] & ~0xFFFFFFL) | rgb(red, green, blue);
+	}
+
+	// doubles the capacity, so appending n runs copies O(n) slots in total
+	private void grow() {
+		runs = Arrays.copyOf(runs, runs.length * 2);
+	}
+
+	private static int rgb(int red, int green, int blue) {
+		return (red << 16) | (green << 8) | blue;
+	}
+
+	private static long pack(int start, int rgb) {
+		return ((long) start << 32) | rgb;
+	}
+}
@@ -0,0 +1,161 @@
+/* SobelEdgeMap.java */
+
+import java.util.Arrays;
+
+/**
+ *	A SobelEdgeMap keeps the Sobel edge image of a PixImage up to date while
+ *	the image is edited a few pixels at a time.  Changing one pixel changes
+ *	only the edge pixels of its 3x3 neighborhood, so rather than running
+ *	sobelEdges() over the whole image again, a SobelEdgeMap remembers which
+ *	edge pixels are stale and recomputes just those the next time edges() is
+ *	called.  The cost of an update depends on the number of pixels edited, not
+ *	on the size of the image.
+ *
+ *	Edit the image through setPixel(), or edit it directly and report each
+ *	changed pixel with markDirty().  A SobelEdgeMap constructed from a
+ *	RunLengthEncoding edits the encoding too, so edit the encoding only
+ *	through the SobelEdgeMap's setPixel() and the two always agree.
+ */
+
+public class SobelEdgeMap {
+
+	/**
+	 *	image is the image being edited, rle the encoding edited along with
+	 *	it, if any, and edges the Sobel edge image.  An
+	 *	edge pixel is stale if stale[y * width + x] is true; the stale pixels
+	 *	are also listed, once each, in queue[0...queued - 1].
+	 */
+	private final PixImage image;
+	private final RunLengthEncoding rle;  // null unless built from an encoding
+	private final PixImage edges;
+	private final boolean[] stale;
+	private int[] queue;
+	private int queued;
+
+	/**
+	 *	SobelEdgeMap() constructs an edge map of the specified image, computing
+	 *	the whole edge image once.  The image is not copied; later changes to it
+	 *	must be made through setPixel() or reported with markDirty().
+	 *
+	 *	@param image the image to keep an edge map of.
+	 */
+	public SobelEdgeMap(PixImage image) {
+		this(image, null);
+	}
+
+	/**
+	 *	SobelEdgeMap() constructs an edge map of the image encoded by a
+	 *	run-length encoding.  The SobelEdgeMap decodes the encoding once and
+	 *	afterward passes every setPixel() call on to the encoding as well as
+	 *	its own PixImage, so the encoding must be edited only through the
+	 *	SobelEdgeMap.
+	 *
+	 *	@param rle the run-length encoding of the image.
+	 */
+	public SobelEdgeMap(RunLengthEncoding rle) {
+		this(rle.toPixImage(), rle);
+	}
+
+	private SobelEdgeMap(PixImage image, RunLengthEncoding rle) {
+		this.image = image;
+		this.rle = rle;
+		edges = image.sobelEdges();
+		stale = new boolean[image.getWidth() * image.getHeight()];
+		queue = new int[16];
+		queued = 0;
+	}
+
+	/**
+	 *	getImage() returns the image this SobelEdgeMap follows.
+	 *
+	 *	@return the image being edited.
+	 */
+	public PixImage getImage() {
+		return image;
+	}
+
+	/**
+	 *	getEncoding() returns the run-length encoding this SobelEdgeMap was
+	 *	constructed from, kept equal to getImage().
+	 *
+	 *	@return the encoding being edited, or null if the SobelEdgeMap was
+	 *	constructed from a PixImage.
+	 */
+	public RunLengthEncoding getEncoding() {
+		return rle;
+	}
+
+	/**
+	 *	setPixel() sets the pixel at coordinate (x, y) of the image, like
+	 *	PixImage.setPixel(), and of the run-length encoding, if there is one,
+	 *	and marks its neighborhood of the edge image stale.
+	 *
+	 *	@param x the x-coordinate of the pixel.
+	 *	@param y the y-coordinate of the pixel.
+	 *	@param red the new red intensity for the pixel.
+	 *	@param green the new green intensity for the pixel.
+	 *	@param blue the new blue intensity for the pixel.
+	 */
+	public void setPixel(int x, int y, short red, short green, short blue) {
+		if (x < 0 || y < 0 || x >= image.getWidth() || y >= image.getHeight()) {
+			return;
+		}
+		if (image.getRed(x, y) != red || image.getGreen(x, y) != green ||
+				image.getBlue(x, y) != blue) {
+			image.setPixel(x, y, red, green, blue);
+			if (rle != null) {
+				rle.setPixel(x, y, red, green, blue);
+			}
+			markDirty(x, y);
+		}
+	}
+
+	/**
+	 *	markDirty() reports that the pixel at coordinate (x, y) of the image
+	 *	has changed, so the edge pixels of its 3x3 neighborhood are stale.
+	 *	Coordinates outside the image are ignored.  A SobelEdgeMap constructed
+	 *	from a RunLengthEncoding can't see such edits to its encoding; use
+	 *	setPixel() instead.
+	 *
+	 *	@param x the x-coordinate of the pixel.
+	 *	@param y the y-coordinate of the pixel.
+	 */
+	public void markDirty(int x, int y) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return;
+		}
+		for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, height - 1); j++) {
+			for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, width - 1); i++) {
+				int index = j * width + i;
+				if (!stale[index]) {
+					stale[index] = true;
+					if (queued == queue.length) {
+						queue = Arrays.copyOf(queue, queued * 2);
+					}
+					queue[queued++] = index;
+				}
+			}
+		}
+	}
+
+	/**
+	 *	edges() returns the Sobel edge image of the image, recomputing the
+	 *	edge pixels that are stale.  The result is the same as
+	 *	getImage().sobelEdges().  The same PixImage is returned every time and
+	 *	is updated in place by later calls, so it should not be modified.
+	 *
+	 *	@return the grayscale edge image of the image.
+	 */
+	public PixImage edges() {
+		int width = image.getWidth();
+		for (int k = 0; k < queued; k++) {
+			int index = queue[k];
+			image.sobelPixel(edges, index % width, index / width);
+			stale[index] = false;
+		}
+		queued = 0;
+		return edges;
+	}
+}
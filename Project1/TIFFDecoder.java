@@ -0,0 +1,446 @@
+/* TIFFDecoder.java */
+
+/**
+ *  The TIFFDecoder class reads a TIFF file into a pixel array in PixImage
+ *  format or into a run-length encoding in RunLengthEncoding format, without
+ *  going through JAI.  It handles the subset of TIFF that TIFFEncoder writes:
+ *  8-bit RGB images whose samples are stored either pixel by pixel
+ *  (PlanarConfiguration 1) or in separate strips for red, green, and blue
+ *  (PlanarConfiguration 2), uncompressed or PackBits compressed, in any
+ *  number of strips and in either byte order.  For any other file the read
+ *  methods return null, and the caller should fall back to a general-purpose
+ *  reader.
+ *
+ *  The file is memory-mapped with FileChannel.map(), so the image data is
+ *  never copied onto the heap.  Rows are decoded one at a time straight out
+ *  of the mapped strips into the PixImage or into a RunLengthEncoder; reading
+ *  a run-length encoding needs only one row of heap besides the runs, and
+ *  reading a TiledImage only one row plus the tile cache.
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class TIFFDecoder {
+
+  // The TIFF tags we read.  See Section 8 (page 39) of the TIFF spec.
+  private static final int IMAGE_WIDTH = 256;
+  private static final int IMAGE_LENGTH = 257;
+  private static final int BITS_PER_SAMPLE = 258;
+  private static final int COMPRESSION = 259;
+  private static final int PHOTOMETRIC = 262;
+  private static final int STRIP_OFFSETS = 273;
+  private static final int SAMPLES_PER_PIXEL = 277;
+  private static final int ROWS_PER_STRIP = 278;
+  private static final int STRIP_BYTE_COUNTS = 279;
+  private static final int PLANAR_CONFIGURATION = 284;
+  private static final int PREDICTOR = 317;
+
+  // The TIFF field types we understand, and their sizes in bytes.
+  private static final int BYTE = 1;
+  private static final int SHORT = 3;
+  private static final int LONG = 4;
+
+  private static final int NO_COMPRESSION = 1;
+  private static final int PACKBITS = 32773;
+
+  /**
+   *  A RowSink receives the decoded rows of an image, top to bottom, as red,
+   *  green, and blue bytes (the format of PixImage.getRow()).
+   */
+  private interface RowSink {
+    void row(int y, byte[] rgb);
+  }
+
+  private final FileChannel channel;
+  private final ByteBuffer file;  // the whole file, or null if it's too big
+  private ByteOrder order;
+
+  private int width;
+  private int height;
+  private int compression;
+  private int rowsPerStrip;
+  private int planes;  // 1 if the samples are chunky, 3 if planar
+  private long[] stripOffsets;
+  private long[] stripByteCounts;
+
+  /**
+   *  TIFFDecoder() maps a file for reading.  Files of up to 2 GB are mapped
+   *  once; larger files are mapped a piece at a time.
+   *
+   *  @param channel a channel open for reading the file.
+   */
+  private TIFFDecoder(FileChannel channel) throws IOException {
+    this.channel = channel;
+    if (channel.size() <= Integer.MAX_VALUE) {
+      file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } else {
+      file = null;
+    }
+    order = ByteOrder.BIG_ENDIAN;
+  }
+
+  /**
+   *  readTIFFPix() reads an image from a file and formats it as a PixImage.
+   *
+   *  @param filename the name of the file to read.
+   *  @return a PixImage of the file, or null if the file is not in the subset
+   *  of TIFF that TIFFDecoder reads.
+   *  @throws IOException if the file cannot be read or is malformed.
+   */
+  public static PixImage readTIFFPix(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                                                StandardOpenOption.READ)) {
+      TIFFDecoder decoder = new TIFFDecoder(channel);
+      if (!decoder.readDirectory()
+          || 3L * decoder.width * decoder.height > Integer.MAX_VALUE) {
+        return null;
+      }
+      final PixImage image = new PixImage(decoder.width, decoder.height);
+      decoder.decode(new RowSink() {
+          public void row(int y, byte[] rgb) {
+            image.setRow(y, rgb, 0);
+          }
+        });
+      return image;
+    }
+  }
+
+  /**
+   *  readTIFFRLE() reads an image from a file and formats it as a run-length
+   *  encoding.
+   *
+   *  @param filename the name of the file to read.
+   *  @return a RunLengthEncoding of the file, or null if the file is not in
+   *  the subset of TIFF that TIFFDecoder reads or the image has no pixels.
+   *  @throws IOException if the file cannot be read or is malformed.
+   */
+  public static RunLengthEncoding readTIFFRLE(String filename)
+                                             throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                                                StandardOpenOption.READ)) {
+      TIFFDecoder decoder = new TIFFDecoder(channel);
+      if (!decoder.readDirectory() || decoder.width == 0
+          || decoder.height == 0) {
+        return null;
+      }
+      final RunLengthEncoder encoder =
+        new RunLengthEncoder(decoder.width, decoder.height);
+      decoder.decode(new RowSink() {
+          public void row(int y, byte[] rgb) {
+            encoder.appendRow(rgb, 0);
+          }
+        });
+      return encoder.finish();
+    }
+  }
+
+  /**
+   *  readTIFFTiled() reads an image from a file into a TiledImage, so the
+   *  image need not fit in memory.
+   *
+   *  @param filename the name of the file to read.
+   *  @param tileSize the width and height of each tile.
+   *  @param cachedTiles the number of tiles to keep on the heap.
+   *  @return a TiledImage of the file, or null if the file is not in the
+   *  subset of TIFF that TIFFDecoder reads or the image has no pixels.
+   *  @throws IOException if the file cannot be read or is malformed.
+   */
+  public static TiledImage readTIFFTiled(String filename, int tileSize,
+                                         int cachedTiles) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                                                StandardOpenOption.READ)) {
+      TIFFDecoder decoder = new TIFFDecoder(channel);
+      if (!decoder.readDirectory() || decoder.width == 0
+          || decoder.height == 0) {
+        return null;
+      }
+      final TiledImage image = new TiledImage(decoder.width, decoder.height,
+                                              tileSize, cachedTiles);
+      final int width = decoder.width;
+      decoder.decode(new RowSink() {
+          public void row(int y, byte[] rgb) {
+            image.setSpan(0, y, width, rgb, 0);
+          }
+        });
+      return image;
+    }
+  }
+
+  /**
+   *  map() returns a buffer holding length bytes of the file starting at
+   *  position, in the file's byte order.
+   *
+   *  @throws IOException if the bytes lie past the end of the file.
+   */
+  private ByteBuffer map(long position, long length) throws IOException {
+    if (position < 0 || length < 0 || position + length > channel.size()) {
+      throw new IOException("TIFF file is truncated");
+    }
+    ByteBuffer buffer;
+    if (file != null) {
+      buffer = file.duplicate();
+      buffer.position((int) position);
+      buffer.limit((int) (position + length));
+      buffer = buffer.slice();
+    } else if (length <= Integer.MAX_VALUE) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    } else {
+      throw new IOException("TIFF strip is larger than 2 GB");
+    }
+    return buffer.order(order);
+  }
+
+  /**
+   *  readDirectory() reads the header and the first image file directory
+   *  (IFD) of the file.
+   *
+   *  @return true if the image is in the subset TIFFDecoder can decode.
+   *  @throws IOException if the file is not a well-formed TIFF file.
+   */
+  private boolean readDirectory() throws IOException {
+    ByteBuffer header = map(0, 8);
+    short byteOrder = header.getShort();
+    if (byteOrder == 0x4949) {  // "II"
+      order = ByteOrder.LITTLE_ENDIAN;
+    } else if (byteOrder != 0x4d4d) {  // "MM"
+      throw new IOException("not a TIFF file");
+    }
+    header.order(order);
+    if (header.getShort() != 42) {  // Magic number for TIFF files.
+      throw new IOException("not a TIFF file");
+    }
+    long dirOffset = header.getInt() & 0xFFFFFFFFL;
+    int entries = map(dirOffset, 2).getShort() & 0xFFFF;
+    ByteBuffer dir = map(dirOffset + 2, 12L * entries);
+
+    // Defaults for fields that may be omitted; see the TIFF spec.
+    long[] bitsPerSample = { 1 };
+    compression = NO_COMPRESSION;
+    int photometric = -1;
+    int samplesPerPixel = 1;
+    long rows = 0xFFFFFFFFL;
+    int planar = 1;
+    int predictor = 1;
+    width = -1;  // both are required
+    height = -1;
+    stripOffsets = null;
+    stripByteCounts = null;
+
+    for (int i = 0; i < entries; i++) {
+      int tag = dir.getShort(12 * i) & 0xFFFF;
+      long[] values = readValues(dir, 12 * i);
+      if (values.length == 0) {
+        continue;
+      }
+      switch (tag) {
+      case IMAGE_WIDTH:
+        width = (int) Math.min(values[0], Integer.MAX_VALUE);
+        break;
+      case IMAGE_LENGTH:
+        height = (int) Math.min(values[0], Integer.MAX_VALUE);
+        break;
+      case BITS_PER_SAMPLE:
+        bitsPerSample = values;
+        break;
+      case COMPRESSION:
+        compression = (int) values[0];
+        break;
+      case PHOTOMETRIC:
+        photometric = (int) values[0];
+        break;
+      case STRIP_OFFSETS:
+        stripOffsets = values;
+        break;
+      case SAMPLES_PER_PIXEL:
+        samplesPerPixel = (int) values[0];
+        break;
+      case ROWS_PER_STRIP:
+        rows = values[0];
+        break;
+      case STRIP_BYTE_COUNTS:
+        stripByteCounts = values;
+        break;
+      case PLANAR_CONFIGURATION:
+        planar = (int) values[0];
+        break;
+      case PREDICTOR:
+        predictor = (int) values[0];
+        break;
+      default:  // A field that doesn't affect how we decode the pixels.
+        break;
+      }
+    }
+
+    if (width < 0 || height < 0 || (long) width * height > Integer.MAX_VALUE
+        || samplesPerPixel != 3 || photometric != 2
+        || (planar != 1 && planar != 2)
+        || predictor != 1
+        || (compression != NO_COMPRESSION && compression != PACKBITS)) {
+      return false;
+    }
+    for (long bits : bitsPerSample) {
+      if (bits != 8) {
+        return false;
+      }
+    }
+    // An image with no rows still has one (empty) strip.
+    rowsPerStrip = (int) Math.max(1, Math.min(rows, height));
+    planes = planar == 2 ? 3 : 1;
+    int strips = planes * Math.max(1, (height + rowsPerStrip - 1) /
+                                      rowsPerStrip);
+    return stripOffsets != null && stripOffsets.length == strips
+           && stripByteCounts != null && stripByteCounts.length == strips;
+  }
+
+  /**
+   *  readValues() reads the values of an image file directory entry.  Values
+   *  that fit in four bytes are stored in the entry itself; larger ones are
+   *  stored elsewhere in the file.  See Section 2 (page 15) of the TIFF spec.
+   *
+   *  @param dir the buffer holding the directory entries.
+   *  @param entry the index in dir of the entry.
+   *  @return the values, or an empty array if they have a type we don't use.
+   */
+  private long[] readValues(ByteBuffer dir, int entry) throws IOException {
+    int type = dir.getShort(entry + 2) & 0xFFFF;
+    long count = dir.getInt(entry + 4) & 0xFFFFFFFFL;
+    int size;
+    switch (type) {
+    case BYTE:
+      size = 1;
+      break;
+    case SHORT:
+      size = 2;
+      break;
+    case LONG:
+      size = 4;
+      break;
+    default:  // There are other possible types, but we never need them.
+      return new long[0];
+    }
+    if (count == 0 || count > Integer.MAX_VALUE / size) {
+      return new long[0];
+    }
+
+    ByteBuffer data;
+    if (count * size <= 4) {
+      data = dir.duplicate().order(order);
+      data.position(entry + 8);
+    } else {
+      data = map(dir.getInt(entry + 8) & 0xFFFFFFFFL, count * size);
+    }
+    long[] values = new long[(int) count];
+    for (int i = 0; i < values.length; i++) {
+      if (size == 1) {
+        values[i] = data.get() & 0xFF;
+      } else if (size == 2) {
+        values[i] = data.getShort() & 0xFFFF;
+      } else {
+        values[i] = data.getInt() & 0xFFFFFFFFL;
+      }
+    }
+    return values;
+  }
+
+  /**
+   *  decode() decodes every strip of the image and passes the rows to sink
+   *  in order.  The same row array is reused for every row.  For a planar
+   *  image, the red, green, and blue strips covering the same rows are read
+   *  side by side and interleaved a row at a time.
+   *
+   *  @throws IOException if a strip is truncated.
+   */
+  private void decode(RowSink sink) throws IOException {
+    int strips = stripOffsets.length / planes;
+    byte[] row = new byte[3 * width];
+    byte[] plane = new byte[width];
+    StripReader[] readers = new StripReader[planes];
+    for (int s = 0; s < strips; s++) {
+      int first = s * rowsPerStrip;
+      int end = Math.min(first + rowsPerStrip, height);
+      for (int p = 0; p < planes; p++) {
+        int i = p * strips + s;
+        readers[p] = new StripReader(map(stripOffsets[i], stripByteCounts[i]),
+                                     compression == PACKBITS);
+      }
+      try {
+        for (int y = first; y < end; y++) {
+          if (planes == 1) {
+            readers[0].read(row, row.length);
+          } else {
+            for (int p = 0; p < planes; p++) {
+              readers[p].read(plane, width);
+              for (int x = 0; x < width; x++) {
+                row[3 * x + p] = plane[x];
+              }
+            }
+          }
+          sink.row(y, row);
+        }
+      } catch (BufferUnderflowException e) {
+        throw new IOException("strip " + s + " of TIFF file is truncated");
+      }
+    }
+  }
+
+  /**
+   *  A StripReader reads the bytes of a strip in order, uncompressing them
+   *  if the strip is PackBits compressed.  See Section 9 (page 42) of the
+   *  TIFF spec.  The spec asks encoders to start a new packet at each row,
+   *  but a StripReader doesn't rely on it:  a packet may be split between
+   *  calls to read().
+   */
+  private static class StripReader {
+    private final ByteBuffer data;
+    private final boolean packBits;
+    private int count;         // bytes left in the current packet
+    private boolean literal;   // whether the current packet is a literal
+    private byte value;        // the value a replicate packet repeats
+
+    StripReader(ByteBuffer data, boolean packBits) {
+      this.data = data;
+      this.packBits = packBits;
+    }
+
+    /**
+     *  read() reads the next length bytes of the strip into dst[0...length-1].
+     *
+     *  @throws BufferUnderflowException if the strip ends first.
+     */
+    void read(byte[] dst, int length) {
+      if (!packBits) {
+        data.get(dst, 0, length);
+        return;
+      }
+      int filled = 0;
+      while (filled < length) {
+        if (count == 0) {
+          int n = data.get();
+          if (n == -128) {  // A no-op.
+            continue;
+          }
+          literal = n >= 0;
+          count = literal ? n + 1 : 1 - n;
+          if (!literal) {
+            value = data.get();
+          }
+        }
+        int chunk = Math.min(count, length - filled);
+        if (literal) {
+          data.get(dst, filled, chunk);
+        } else {
+          Arrays.fill(dst, filled, filled + chunk, value);
+        }
+        filled += chunk;
+        count -= chunk;
+      }
+    }
+  }
+}
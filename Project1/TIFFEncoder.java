@@ -1,11 +1,8 @@
 /* TIFFEncoder.java */
 
-/* DO NOT CHANGE THIS FILE. */
-/* YOUR SUBMISSION MUST WORK CORRECTLY WITH _OUR_ COPY OF THIS FILE. */
-
-/* You may wish to make temporary changes or insert println() statements     */
-/* while testing your code.  When you're finished testing and debugging,     */
-/* though, make sure your code works with the original version of this file. */
+/* This file started as the staff's copy and has since been extended:     */
+/* output is streamed through a buffer, images may be split into strips   */
+/* that are compressed in parallel, and images can be written planar.     */
 
 /**
  *  The TIFFEncoder class allows us to write a TIFF file from a pixel array
@@ -17,12 +14,17 @@
  *  @author Joel Galenson
  **/
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.ArrayList;
-
-import javax.imageio.stream.FileImageOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class TIFFEncoder {
 
@@ -32,6 +34,136 @@ public class TIFFEncoder {
    */
   private static enum TiffType { SHORT, LONG }
 
+  // For simplicity, we hardcode the number of directories we're writing.
+  private static final int NUM_DIRS = 10;
+  // The size (in bytes) of various parts of TIFF images.
+  private static final int HEADER_SIZE = 8;
+  private static final int DIR_SIZE = 12;
+  // The largest offset a TIFF file can hold.
+  private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+  /**
+   * A ByteSink receives PackBits compressed bytes, either straight into the
+   * file or into a strip buffer.
+   */
+  private interface ByteSink {
+    void writeByte(int value) throws IOException;
+  }
+
+  /**
+   * A StripBuffer collects the compressed bytes of one strip in memory, so
+   * strips can be compressed in parallel and written to the file in order.
+   */
+  private static class StripBuffer implements ByteSink {
+    private byte[] bytes;
+    private int size;
+
+    StripBuffer(int capacity) {
+      bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    public void writeByte(int value) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, size * 2);
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void writeTo(TIFFOutput stream) throws IOException {
+      stream.write(bytes, 0, size);
+    }
+  }
+
+  /**
+   * A TIFFOutput writes big-endian values into a reusable direct ByteBuffer
+   * and hands the buffer to the file's channel in large chunks whenever it
+   * fills, so image bytes are neither boxed nor written one at a time.
+   */
+  private static class TIFFOutput implements ByteSink, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long flushed;  // number of bytes already written to the channel
+
+    TIFFOutput(String filename) throws IOException {
+      channel = FileChannel.open(Paths.get(filename),
+                                 StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** position() returns the number of bytes written so far. */
+    long position() {
+      return flushed + buffer.position();
+    }
+
+    public void writeByte(int value) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) value);
+    }
+
+    void writeShort(int value) throws IOException {
+      if (buffer.remaining() < 2) {
+        flush();
+      }
+      buffer.putShort((short) value);
+    }
+
+    void writeInt(int value) throws IOException {
+      if (buffer.remaining() < 4) {
+        flush();
+      }
+      buffer.putInt(value);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.put(bytes, offset, count);
+        offset += count;
+        length -= count;
+      }
+    }
+
+    /**
+     * writeIntAt() overwrites four bytes that have already been written, at
+     * the given position from the start of the file.
+     */
+    void writeIntAt(long position, int value) throws IOException {
+      flush();
+      ByteBuffer patch = ByteBuffer.allocate(4).putInt(0, value);
+      while (patch.hasRemaining()) {
+        channel.write(patch, position + patch.position());
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        flushed += channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
   /**
    * getTypeInt() returns the integer flag for the specified TIFF type, which
    * is used to specify which type the value has.
@@ -60,7 +192,7 @@ public class TIFFEncoder {
    * @param val the value to write.
    * @throws IOException
    */
-  private static void writeLeftAlignedValue(FileImageOutputStream stream,
+  private static void writeLeftAlignedValue(TIFFOutput stream,
                                             TiffType type, int val)
                                            throws IOException {
     switch (type) {
@@ -87,7 +219,7 @@ public class TIFFEncoder {
    * @param value the value of the field.
    * @throws IOException
    */
-  private static void writeValueTag(FileImageOutputStream stream, int tag,
+  private static void writeValueTag(TIFFOutput stream, int tag,
                                     TiffType type, int value)
                                    throws IOException {
     stream.writeShort(tag);
@@ -108,7 +240,7 @@ public class TIFFEncoder {
    * @param offset the offset in the file where the actual value is stored.
    * @throws IOException
    */
-  private static void writeOffsetTag(FileImageOutputStream stream, int tag,
+  private static void writeOffsetTag(TIFFOutput stream, int tag,
                                      TiffType type, int count, int offset)
                                     throws IOException {
     stream.writeShort(tag);
@@ -119,82 +251,158 @@ public class TIFFEncoder {
   }
 
   /**
-   * writeTIFF() writes the specified data into a TIFF file.
+   * writeHeader() writes the TIFF header.  The offset of the image file
+   * directory is left as zero until writeDirectory() fills it in, since the
+   * directory follows the image data, whose compressed size is not known in
+   * advance.
+   *
+   * @param stream the stream representing the file being written.
+   * @throws IOException
+   */
+  private static void writeHeader(TIFFOutput stream) throws IOException {
+    stream.writeShort(0x4d4d);  // Big-endian byte order.
+    stream.writeShort(42);  // Magic number for TIFF files.
+    stream.writeInt(0);  // Offset of image file dir; see writeDirectory().
+  }
+
+  /**
+   * writeDirectory() writes the footer of a TIFF file, including an image
+   * file directory (IFD), immediately after the image data, and points the
+   * header at the directory.
    * For more details, see the TIFF spec at
    * http://partners.adobe.com/public/developer/en/tiff/TIFF6.pdf.
    * This code adapted from http://paulbourke.net/dataformats/tiff/.
    *
-   * @param data the bytes of the image data.
+   * @param stream the stream representing the file being written.  The
+   * header and the image data must already have been written.
    * @param width the width of the image.
    * @param height the height of the image.
-   * @param filename the name of the file to write.
    * @param isCompressed true if the data is compressed in PackBits format;
    * false if it is stored uncompressed.
+   * @param isPlanar true if the red, green, and blue samples are stored in
+   * separate strips; false if each pixel's samples are stored together.
+   * @param rowsPerStrip the number of rows in each strip but the last.
+   * @param stripOffsets the offset in the file of each strip.  For a planar
+   * image, all the red strips come first, then green, then blue.
+   * @param stripByteCounts the number of bytes in each strip.
+   * @throws IOException
    */
-  private static void writeTIFF(ArrayList<Short> data, int width, int height,
-                                String filename, boolean isCompressed) {
-    // For simplicity, we hardcode the number of directories we're writing.
-    final int NUM_DIRS = 10;
-    // The size (in bytes) of various parts of TIFF images.
-    final int HEADER_SIZE = 8;
-    final int DIR_SIZE = 12;
+  private static void writeDirectory(TIFFOutput stream, int width, int height,
+                                     boolean isCompressed, boolean isPlanar,
+                                     int rowsPerStrip, long[] stripOffsets,
+                                     long[] stripByteCounts)
+                                    throws IOException {
+    int strips = stripOffsets.length;
+    long dirOffset = stream.position();
+    // The values that don't fit in the directory follow it:  the bits per
+    // sample, then (if there is more than one strip) the strip offsets and
+    // the strip byte counts.
+    long bitsOffset = dirOffset + 2 + DIR_SIZE * NUM_DIRS + 4;
+    long offsetsOffset = bitsOffset + 6;
+    long countsOffset = offsetsOffset + 4L * strips;
+    if (countsOffset + 4L * strips > MAX_OFFSET) {
+      throw new IOException("TIFF file would exceed 4 GB");
+    }
 
-    try {
-      FileImageOutputStream stream =
-        new FileImageOutputStream(new File(filename));
-      
-      // Write the header.
-      stream.writeShort(0x4d4d);  // Big-endian byte order.
-      stream.writeShort(42);  // Magic number for TIFF files.
-      stream.writeInt(data.size() + HEADER_SIZE);  // Offset of image file dir.
-
-      // Write the image data.
-      for (Short datum: data) {
-        stream.writeByte(datum);
-      }
+    // Write the footer, including an image file directory (IFD).
+    stream.writeShort(NUM_DIRS);  // Number of image file directory entries.
+    // IFD entry 0:  Image width.  Either SHORT or LONG is allowed; we use
+    //   SHORT whenever the value fits.
+    writeValueTag(stream, 256, typeFor(width), width);
+    // IFD entry 1:  Image height.
+    writeValueTag(stream, 257, typeFor(height), height);
+    // IFD entry 2:  Bits per sample.
+    writeOffsetTag(stream, 258, TiffType.SHORT, 3, (int) bitsOffset);
+    // IFD entry 3:  Compression tag.  1 means no compression.
+    // 32773 means "PackBits compression", a run-length encoding.
+    writeValueTag(stream, 259, TiffType.SHORT, isCompressed ? 32773 : 1);
+    // IFD entry 4:  Photometric tag.  2 means it's a full-color RGB image.
+    writeValueTag(stream, 262, TiffType.SHORT, 2);
+    // IFD entry 5:  "StripOffsets".  The byte offset of each strip.
+    if (strips == 1) {
+      writeValueTag(stream, 273, TiffType.LONG, (int) stripOffsets[0]);
+    } else {
+      writeOffsetTag(stream, 273, TiffType.LONG, strips, (int) offsetsOffset);
+    }
+    // IFD entry 6:  Samples per pixel.  3 for red, green, and blue.
+    writeValueTag(stream, 277, TiffType.SHORT, 3);
+    // IFD entry 7:  Rows per strip.
+    writeValueTag(stream, 278, typeFor(rowsPerStrip), rowsPerStrip);
+    // IFD entry 8:  "Strip byte counts"; number of bytes in each strip.
+    if (strips == 1) {
+      writeValueTag(stream, 279, TiffType.LONG, (int) stripByteCounts[0]);
+    } else {
+      writeOffsetTag(stream, 279, TiffType.LONG, strips, (int) countsOffset);
+    }
+    // IFD entry 9:  Planar configuration.  1 means each pixel is continuous;
+    //   2 means there are separate strips for red, green, and blue.
+    writeValueTag(stream, 284, TiffType.SHORT, isPlanar ? 2 : 1);
+
+    // Four bytes of zero signify that there are no more IFDs.
+    stream.writeInt(0);
 
-      // Write the footer, including an image file directory (IFD).
-      stream.writeShort(NUM_DIRS);  // Number of image file directory entries.
-      // TODO:  width and height and others below could be LONG (32 bits).
-      // IFD entry 0:  Image width.
-      writeValueTag(stream, 256, TiffType.SHORT, width);
-      // IFD entry 1:  Image height.
-      writeValueTag(stream, 257, TiffType.SHORT, height);
-      // IFD entry 2:  Bits per sample.
-      writeOffsetTag(stream, 258, TiffType.SHORT, 3,
-                     data.size() + HEADER_SIZE + DIR_SIZE * NUM_DIRS + 6);
-      // IFD entry 3:  Compression tag.  1 means no compression.
-      // 32773 means "PackBits compression", a run-length encoding.
-      writeValueTag(stream, 259, TiffType.SHORT, isCompressed ? 32773 : 1);
-      // IFD entry 4:  Photometric tag.  2 means it's a full-color RGB image.
-      writeValueTag(stream, 262, TiffType.SHORT, 2);
-      // IFD entry 5:  "StripOffsets".  The byte offset of the image.
-      writeValueTag(stream, 273, TiffType.LONG, HEADER_SIZE);
-      // IFD entry 6:  Samples per pixel.  3 for red, green, and blue.
-      writeValueTag(stream, 277, TiffType.SHORT, 3);
-      // IFD entry 7:  Rows per strip.  Our image is encoded as just one strip.
-      writeValueTag(stream, 278, TiffType.SHORT, height);
-      // IFD entry 8:  "Strip byte count"; number of bytes in the image.
-      writeValueTag(stream, 279, TiffType.LONG, data.size());
-      // IFD entry 9:  Planar configuration.  1 means each pixel is continuous
-      //   (as opposed to separate sections for red, green, and blue).
-      writeValueTag(stream, 284, TiffType.SHORT, 1);
-
-      // Four bytes of zero signify that there are no more IFDs.
-      stream.writeInt(0);
-      
-      // Write the "bits per sample" data for IFD entry 2 (above).
-      // There are 8 bits for red, 8 for green, and 8 for blue.
-      for (int i = 0; i < 3; i++) {
-        stream.writeShort(8);
+    // Write the "bits per sample" data for IFD entry 2 (above).
+    // There are 8 bits for red, 8 for green, and 8 for blue.
+    for (int i = 0; i < 3; i++) {
+      stream.writeShort(8);
+    }
+    // Write the strip offsets and byte counts for IFD entries 5 and 8.
+    if (strips > 1) {
+      for (int i = 0; i < strips; i++) {
+        stream.writeInt((int) stripOffsets[i]);
+      }
+      for (int i = 0; i < strips; i++) {
+        stream.writeInt((int) stripByteCounts[i]);
       }
+    }
 
-      stream.close();
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+    // Now that the size of the image data is known, point the header at the
+    // directory.
+    stream.writeIntAt(4, (int) dirOffset);
+  }
+
+  /**
+   * typeFor() returns the smallest type that holds a nonnegative value.
+   *
+   * @param value the value.
+   * @return SHORT if the value fits in 16 bits; LONG otherwise.
+   */
+  private static TiffType typeFor(int value) {
+    return value <= 0xFFFF ? TiffType.SHORT : TiffType.LONG;
+  }
+
+  /**
+   * stripRows() returns the number of rows to put in each strip, which is
+   * rowsPerStrip reduced, if necessary, to the height of the image and to
+   * the most rows whose compressed bytes fit in one array, but never below
+   * one row.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param rowsPerStrip the number of rows per strip requested.
+   * @return the number of rows per strip to write.
+   */
+  private static int stripRows(int width, int height, int rowsPerStrip) {
+    if (rowsPerStrip < 1) {
+      throw new IllegalArgumentException("rowsPerStrip must be positive");
     }
+    // PackBits takes at most four bytes per pixel; see writePackBits().
+    int maxRows = width == 0 ? Integer.MAX_VALUE
+                             : Math.max(1, Integer.MAX_VALUE / 4 / width);
+    return Math.max(1, Math.min(rowsPerStrip, Math.min(height, maxRows)));
+  }
+
+  /**
+   * stripCount() returns the number of strips of the given number of rows
+   * that cover the image.  An image with no rows still gets one empty strip,
+   * as TIFF readers expect at least one.
+   *
+   * @param height the height of the image.
+   * @param rowsPerStrip the number of rows per strip, from stripRows().
+   * @return the number of strips to write.
+   */
+  private static int stripCount(int height, int rowsPerStrip) {
+    return Math.max(1, (height + rowsPerStrip - 1) / rowsPerStrip);
   }
 
   /**
@@ -204,17 +412,81 @@ public class TIFFEncoder {
    * @param filename the name of the file to write.
    */
   public static void writeTIFF(PixImage image, String filename) {
-    ArrayList<Short> pixels =
-      new ArrayList<Short>(image.getWidth() * image.getHeight() * 3);
-    // Note that our for loops iterate in this order so we write by rows.
-    for (int j = 0; j < image.getHeight(); j++) {
-      for (int i = 0; i < image.getWidth(); i++) {
-        pixels.add(image.getRed(i, j));
-        pixels.add(image.getGreen(i, j));
-        pixels.add(image.getBlue(i, j));
+    writeTIFF(image, filename, Math.max(1, image.getHeight()));
+  }
+
+  /**
+   * writeTIFF() writes the specified PixImage into an uncompressed TIFF file
+   * divided into strips of rowsPerStrip rows (the last strip may have fewer),
+   * so a reader can get at part of the image without reading all of it.
+   *
+   * @param image the PixImage.
+   * @param filename the name of the file to write.
+   * @param rowsPerStrip the number of rows in each strip.
+   */
+  public static void writeTIFF(PixImage image, String filename,
+                               int rowsPerStrip) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    rowsPerStrip = stripRows(width, height, rowsPerStrip);
+    int strips = stripCount(height, rowsPerStrip);
+    long[] stripOffsets = new long[strips];
+    long[] stripByteCounts = new long[strips];
+
+    try (TIFFOutput stream = new TIFFOutput(filename)) {
+      writeHeader(stream);
+      stripOffsets[0] = stream.position();  // even if there are no rows
+      // PixImage already stores its pixels by rows as red, green, blue bytes.
+      byte[] row = new byte[width * 3];
+      for (int j = 0; j < height; j++) {
+        if (j % rowsPerStrip == 0) {
+          stripOffsets[j / rowsPerStrip] = stream.position();
+        }
+        image.getRow(j, row, 0);
+        stream.write(row, 0, row.length);
+        stripByteCounts[j / rowsPerStrip] += row.length;
+      }
+      writeDirectory(stream, width, height, false, false, rowsPerStrip,
+                     stripOffsets, stripByteCounts);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * writeTIFF() writes the specified TiledImage into an uncompressed TIFF
+   * file, one row at a time, in strips of rowsPerStrip rows.
+   *
+   * @param image the TiledImage.
+   * @param filename the name of the file to write.
+   * @param rowsPerStrip the number of rows in each strip.
+   */
+  public static void writeTIFF(TiledImage image, String filename,
+                               int rowsPerStrip) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    rowsPerStrip = stripRows(width, height, rowsPerStrip);
+    int strips = stripCount(height, rowsPerStrip);
+    long[] stripOffsets = new long[strips];
+    long[] stripByteCounts = new long[strips];
+
+    try (TIFFOutput stream = new TIFFOutput(filename)) {
+      writeHeader(stream);
+      stripOffsets[0] = stream.position();  // even if there are no rows
+      byte[] row = new byte[width * 3];
+      for (int j = 0; j < height; j++) {
+        if (j % rowsPerStrip == 0) {
+          stripOffsets[j / rowsPerStrip] = stream.position();
+        }
+        image.getSpan(0, j, width, row, 0);
+        stream.write(row, 0, row.length);
+        stripByteCounts[j / rowsPerStrip] += row.length;
       }
+      writeDirectory(stream, width, height, false, false, rowsPerStrip,
+                     stripOffsets, stripByteCounts);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    writeTIFF(pixels, image.getWidth(), image.getHeight(), filename, false);
   }
 
   /**
@@ -224,27 +496,298 @@ public class TIFFEncoder {
    * @param filename the name of the file to write.
    */
   public static void writeTIFF(RunLengthEncoding rle, String filename) {
-    ArrayList<Short> pixels = new ArrayList<Short>();
+    writeTIFF(rle, filename, Math.max(1, rle.getHeight()), 1);
+  }
 
+  /**
+   * writeTIFFOrThrow() writes the same compressed TIFF file as writeTIFF(),
+   * but reports a failure to write it by throwing, where writeTIFF() only
+   * prints a stack trace.  Use it when the caller must know whether the file
+   * was written.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void writeTIFFOrThrow(RunLengthEncoding rle, String filename)
+                                     throws IOException {
+    writeStrips(rle, filename, Math.max(1, rle.getHeight()), 1);
+  }
+
+  /**
+   * writeTIFF() writes the given image data into a compressed TIFF file
+   * divided into strips of rowsPerStrip rows (the last strip may have fewer).
+   * Each strip is compressed independently, so with a parallelism of two or
+   * more the strips are compressed on a pool of worker threads and written
+   * in order as they finish.  At most twice as many strips as there are
+   * threads are held in memory at once.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   * @param rowsPerStrip the number of rows in each strip.
+   * @param parallelism the number of worker threads to use.  Values less
+   * than 2 compress every strip on the calling thread.
+   */
+  public static void writeTIFF(RunLengthEncoding rle, String filename,
+                               int rowsPerStrip, int parallelism) {
+    try {
+      writeStrips(rle, filename, rowsPerStrip, parallelism);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // writes the file for the four-parameter writeTIFF(), throwing any
+  // IOException to the caller
+  private static void writeStrips(final RunLengthEncoding rle, String filename,
+                                  int rowsPerStrip, int parallelism)
+                                 throws IOException {
+    final int width = rle.getWidth();
+    final int height = rle.getHeight();
+    final int rows = stripRows(width, height, rowsPerStrip);
+    int strips = stripCount(height, rows);
+    long[] stripOffsets = new long[strips];
+    long[] stripByteCounts = new long[strips];
+
+    ForkJoinPool pool = parallelism < 2 ? null : new ForkJoinPool(parallelism);
+    try (TIFFOutput stream = new TIFFOutput(filename)) {
+      writeHeader(stream);
+      if (pool == null) {
+        for (int s = 0; s < strips; s++) {
+          stripOffsets[s] = stream.position();
+          writePackBits(stream, rle, s * rows,
+                        Math.min((s + 1) * rows, height));
+          stripByteCounts[s] = stream.position() - stripOffsets[s];
+        }
+      } else {
+        ArrayDeque<ForkJoinTask<StripBuffer>> pending =
+          new ArrayDeque<ForkJoinTask<StripBuffer>>();
+        int submitted = 0;
+        for (int s = 0; s < strips; s++) {
+          while (submitted < strips && pending.size() < 2 * parallelism) {
+            final int first = submitted * rows;
+            pending.add(pool.submit(new Callable<StripBuffer>() {
+                public StripBuffer call() throws IOException {
+                  int end = Math.min(first + rows, height);
+                  StripBuffer strip = new StripBuffer((end - first) * width);
+                  writePackBits(strip, rle, first, end);
+                  return strip;
+                }
+              }));
+            submitted++;
+          }
+          StripBuffer strip = pending.remove().join();
+          stripOffsets[s] = stream.position();
+          stripByteCounts[s] = strip.size();
+          strip.writeTo(stream);
+        }
+      }
+      writeDirectory(stream, width, height, true, false, rows, stripOffsets,
+                     stripByteCounts);
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * writePlanarTIFF() writes the given image data into a compressed TIFF file
+   * in which the red, green, and blue samples are stored in separate strips
+   * (PlanarConfiguration 2), each compressed on its own.  Unlike writeTIFF(),
+   * which can only compress runs whose red, green, and blue are equal, this
+   * compresses the runs of each color separately, so flat areas of any color
+   * shrink as much as gray ones.
+   * Grayscale images are still smaller written by writeTIFF(), which stores
+   * each gray sample once per packet instead of three times.
+   *
+   * JAI's TIFF reader does not support planar files; ImageUtils reads them
+   * with TIFFDecoder.
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   */
+  public static void writePlanarTIFF(RunLengthEncoding rle, String filename) {
+    writePlanarTIFF(rle, filename, Math.max(1, rle.getHeight()));
+  }
+
+  /**
+   * writePlanarTIFF() writes the given image data into a planar compressed
+   * TIFF file, like writePlanarTIFF(rle, filename), divided into strips of
+   * rowsPerStrip rows (the last strip of each color may have fewer).
+   *
+   * @param rle a run-length encoding of the image data.
+   * @param filename the name of the file to write.
+   * @param rowsPerStrip the number of rows in each strip.
+   */
+  public static void writePlanarTIFF(RunLengthEncoding rle, String filename,
+                                     int rowsPerStrip) {
+    int width = rle.getWidth();
+    int height = rle.getHeight();
+    rowsPerStrip = stripRows(width, height, rowsPerStrip);
+    int strips = stripCount(height, rowsPerStrip);
+    long[] stripOffsets = new long[3 * strips];
+    long[] stripByteCounts = new long[3 * strips];
+
+    try (TIFFOutput stream = new TIFFOutput(filename)) {
+      writeHeader(stream);
+      for (int channel = 0; channel < 3; channel++) {
+        for (int s = 0; s < strips; s++) {
+          int i = channel * strips + s;
+          stripOffsets[i] = stream.position();
+          writeChannelPackBits(stream, rle, channel, s * rowsPerStrip,
+                               Math.min((s + 1) * rowsPerStrip, height));
+          stripByteCounts[i] = stream.position() - stripOffsets[i];
+        }
+      }
+      writeDirectory(stream, width, height, true, true, rowsPerStrip,
+                     stripOffsets, stripByteCounts);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * writeChannelPackBits() writes one color of rows first...end - 1 of
+   * a run-length encoding as PackBits compressed image data.  Neighboring
+   * runs that agree in this color are compressed as one.
+   *
+   * @param stream the sink the compressed bytes are written to.
+   * @param rle a run-length encoding of the image data.
+   * @param channel 0 for red, 1 for green, or 2 for blue.
+   * @param first the first row to write.
+   * @param end the row just past the last row to write.
+   * @throws IOException
+   */
+  private static void writeChannelPackBits(ByteSink stream,
+                                           RunLengthEncoding rle, int channel,
+                                           int first, int end)
+                                          throws IOException {
+    int width = rle.getWidth();
+    int begin = first * width;  // Position of the first pixel.
+    int stop = end * width;  // Position just past the last pixel.
+    PackBitsWriter packer = new PackBitsWriter(stream);
+
+    int currentX = 0;  // x-position of the next pixel.
+    for (RunCursor run = rle.cursor(begin);
+         run.advance() && run.start() < stop; ) {
+      int length = Math.min(run.start() + run.length(), stop) -
+                   Math.max(run.start(), begin);
+      int value = channel == 0 ? run.red()
+                  : channel == 1 ? run.green() : run.blue();
+      // Packets may not cross row boundaries, so split the run at each one.
+      while (length > 0) {
+        int count = Math.min(length, width - currentX);
+        packer.add(value, count);
+        length -= count;
+        currentX += count;
+        if (currentX == width) {
+          packer.endRow();
+          currentX = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * A PackBitsWriter compresses a row of single bytes, given as a sequence of
+   * (value, count) segments, into PackBits packets.  Segments of three or more
+   * equal bytes (or two, if no literal is pending) become replicate packets;
+   * shorter ones are gathered into literal packets.
+   */
+  private static class PackBitsWriter {
+    private final ByteSink stream;
+    private final byte[] literal = new byte[128];
+    private int literalSize;
+    private int value;  // the pending segment, which may still grow
+    private int count;
+
+    PackBitsWriter(ByteSink stream) {
+      this.stream = stream;
+    }
+
+    /** add() appends count copies of value to the row. */
+    void add(int value, int count) throws IOException {
+      if (value != this.value && this.count > 0) {
+        pack(this.value, this.count);
+        this.count = 0;
+      }
+      this.value = value;
+      this.count += count;
+    }
+
+    /** endRow() writes everything pending, ending the row. */
+    void endRow() throws IOException {
+      pack(value, count);
+      count = 0;
+      flushLiteral();
+    }
+
+    private void pack(int value, int count) throws IOException {
+      while (count > 0) {
+        if (count >= 3 || (count == 2 && literalSize == 0)) {
+          flushLiteral();
+          int n = Math.min(count, 128);
+          stream.writeByte(1 - n);  // # of times value is repeated.
+          stream.writeByte(value);  // The value that is repeated.
+          count -= n;
+        } else {
+          literal[literalSize++] = (byte) value;
+          count--;
+          if (literalSize == literal.length) {
+            flushLiteral();
+          }
+        }
+      }
+    }
+
+    private void flushLiteral() throws IOException {
+      if (literalSize > 0) {
+        stream.writeByte(literalSize - 1);  // Number of literal values.
+        for (int i = 0; i < literalSize; i++) {
+          stream.writeByte(literal[i]);
+        }
+        literalSize = 0;
+      }
+    }
+  }
+
+  /**
+   * writePackBits() writes rows first...end - 1 of a run-length encoding as
+   * PackBits compressed image data.  Runs that cross the first or last row
+   * boundary are cut off there.
+   *
+   * @param stream the sink the compressed bytes are written to.
+   * @param rle a run-length encoding of the image data.
+   * @param first the first row to write.
+   * @param end the row just past the last row to write.
+   * @throws IOException
+   */
+  private static void writePackBits(ByteSink stream, RunLengthEncoding rle,
+                                    int first, int end) throws IOException {
+    int begin = first * rle.getWidth();  // Position of the first pixel.
+    int stop = end * rle.getWidth();  // Position just past the last pixel.
     int currentX = 0;  // x-position of the next pixel.
-    for (RunIterator it = rle.iterator(); it.hasNext(); ) {
-      int[] run = it.next();
+    for (RunCursor run = rle.cursor(begin);
+         run.advance() && run.start() < stop; ) {
+      int length = Math.min(run.start() + run.length(), stop) -
+                   Math.max(run.start(), begin);
 
       // The TIFF format can compress repeated bytes, so it can express a run
       // of grayscale values in compressed form; but it cannot compress
       // repeated red-green-blue triples if the red, green, and blue values are
       // not all the same.  So we check for a grayscale value (in which the
       // red, green, and blue values are equal).
-      if (run[1] == run[2] && run[1] == run[3]) {
+      if (run.red() == run.green() && run.red() == run.blue()) {
         // It's a grayscale run.  We can write the run in a compressed format.
         int i = 0;
-        while (i < run[0] * 3) {  // run[0] is the number of pixels in the run.
+        while (i < length * 3) {  // length is the number of pixels in the run.
           // Figure the number of bytes to write in one run.  Note that it is
           // always a factor of 3.
-          int curCount = Math.min(Math.min(run[0] * 3 - i, 126),
+          int curCount = Math.min(Math.min(length * 3 - i, 126),
                                   (rle.getWidth() - currentX) * 3);
-          pixels.add((short) (1 - curCount));  // # of times value is repeated.
-          pixels.add((short) run[1]);  // The value that is repeated.
+          stream.writeByte(1 - curCount);  // # of times value is repeated.
+          stream.writeByte(run.red());  // The value that is repeated.
 
           // The TIFF format does not allow you to compress across row
           // boundaries, so we must keep track of the current column so we can
@@ -256,16 +799,16 @@ public class TIFFEncoder {
         // Not grayscale.  We must write every pixel individually.
     	// But we can still encode them as a combined literal run.
         int i = 0;
-        while (i < run[0] * 3) {  // run[0] is the number of pixels in the run.
+        while (i < length * 3) {  // length is the number of pixels in the run.
           // Figure the number of bytes to write in one literal.  Note that it
           // is always a factor of 3.
-          int curCount = Math.min(Math.min(run[0] * 3 - i, 126),
+          int curCount = Math.min(Math.min(length * 3 - i, 126),
                                   (rle.getWidth() - currentX) * 3);
-          pixels.add((short) (curCount - 1));  // Number of literal values.
+          stream.writeByte(curCount - 1);  // Number of literal values.
           for (int j = 0; j < curCount / 3; j++) {  // The literal values.
-            pixels.add((short) run[1]);  // Red.
-            pixels.add((short) run[2]);  // Green.
-            pixels.add((short) run[3]);  // Blue.
+            stream.writeByte(run.red());  // Red.
+            stream.writeByte(run.green());  // Green.
+            stream.writeByte(run.blue());  // Blue.
           }
 
           // The TIFF format does not allow you to compress across row
@@ -276,7 +819,5 @@ public class TIFFEncoder {
         }
       }
     }
-
-    writeTIFF(pixels, rle.getWidth(), rle.getHeight(), filename, true);
   }
 }
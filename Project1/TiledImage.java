@@ -0,0 +1,384 @@
+/* TiledImage.java */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *	A TiledImage is an RGB image that need not fit in memory.  The image is
+ *	cut into square tiles of tileSize x tileSize pixels, and only a fixed
+ *	number of tiles is held on the heap at once, in a least-recently-used
+ *	cache.  A tile pushed out of the cache is copied to a scratch file, which
+ *	is memory-mapped so the operating system pages it in and out as needed,
+ *	and read back the next time it is used.  Tiles that have never been
+ *	written read as black.
+ *
+ *	boxBlur() and sobelEdges() work one output tile at a time.  Each pulls in
+ *	the tiles that hold the output tile plus a halo of neighboring pixels (as
+ *	wide as the number of blur iterations, or one pixel for Sobel), runs the
+ *	PixImage operation on that window, and keeps the middle.  Pixels farther
+ *	from the window's edge than the width of the halo are unaffected by the
+ *	missing neighbors, so the result equals that of the PixImage operation on
+ *	the whole image.
+ *
+ *	A TiledImage is not safe for use by several threads at once.  Call
+ *	close() to delete the scratch file when the image is no longer needed.
+ */
+
+public class TiledImage implements Closeable {
+
+	public static final int DEFAULT_TILE_SIZE = 256;
+	public static final int DEFAULT_CACHED_TILES = 64;
+
+	// each mapping of the scratch file covers at most this many bytes
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	private final int width;
+	private final int height;
+	private final int tileSize;
+	private final int tilesAcross;
+	private final int tileBytes;    // bytes per tile:  3 per pixel, row by row
+	private final int tiles;
+	private final int tilesPerChunk;
+	private final int cachedTiles;
+
+	private final File scratchFile;
+	private final RandomAccessFile scratch;
+	private final MappedByteBuffer[] chunks;  // mapped lazily
+	private final LinkedHashMap<Integer, byte[]> cache;
+
+	/**
+	 *	TiledImage() constructs a black image with the default tile size and
+	 *	cache size.
+	 *
+	 *	@param width the width of the image.
+	 *	@param height the height of the image.
+	 *	@throws IOException if the scratch file cannot be created.
+	 */
+	public TiledImage(int width, int height) throws IOException {
+		this(width, height, DEFAULT_TILE_SIZE, DEFAULT_CACHED_TILES);
+	}
+
+	/**
+	 *	TiledImage() constructs a black image cut into tiles of the specified
+	 *	size, of which at most cachedTiles are kept on the heap.
+	 *
+	 *	@param width the width of the image.
+	 *	@param height the height of the image.
+	 *	@param tileSize the width and height of each tile.
+	 *	@param cachedTiles the number of tiles to keep on the heap.
+	 *	@throws IOException if the scratch file cannot be created.
+	 */
+	public TiledImage(int width, int height, int tileSize, int cachedTiles)
+			throws IOException {
+		if (width <= 0 || height <= 0 || tileSize <= 0 || cachedTiles <= 0) {
+			throw new IllegalArgumentException("sizes must be positive");
+		}
+		if (3L * tileSize * tileSize > CHUNK_BYTES) {
+			throw new IllegalArgumentException("tiles must be under 1 GB");
+		}
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		tilesAcross = (width + tileSize - 1) / tileSize;
+		long count = (long) tilesAcross * ((height + tileSize - 1) / tileSize);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many tiles");
+		}
+		tiles = (int) count;
+		tileBytes = 3 * tileSize * tileSize;
+		tilesPerChunk = CHUNK_BYTES / tileBytes;
+		chunks = new MappedByteBuffer[(tiles - 1) / tilesPerChunk + 1];
+		this.cachedTiles = cachedTiles;
+
+		scratchFile = File.createTempFile("tiles", ".scratch");
+		scratchFile.deleteOnExit();
+		scratch = new RandomAccessFile(scratchFile, "rw");
+
+		cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				if (size() <= TiledImage.this.cachedTiles) {
+					return false;
+				}
+				spill(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 *	getWidth() returns the width of the image.
+	 *
+	 *	@return the width of the image.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 *	getHeight() returns the height of the image.
+	 *
+	 *	@return the height of the image.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 *	getTileSize() returns the width and height of the tiles.
+	 *
+	 *	@return the tile size.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 *	getRed(), getGreen(), and getBlue() return the intensities of the pixel
+	 *	at coordinate (x, y).
+	 *
+	 *	@param x the x-coordinate of the pixel.
+	 *	@param y the y-coordinate of the pixel.
+	 *	@return the intensity of the pixel at coordinate (x, y).
+	 */
+	public short getRed(int x, int y) {
+		return (short) (tileFor(x, y)[offsetFor(x, y)] & 0xFF);
+	}
+
+	public short getGreen(int x, int y) {
+		return (short) (tileFor(x, y)[offsetFor(x, y) + 1] & 0xFF);
+	}
+
+	public short getBlue(int x, int y) {
+		return (short) (tileFor(x, y)[offsetFor(x, y) + 2] & 0xFF);
+	}
+
+	/**
+	 *	setPixel() sets the pixel at coordinate (x, y) to the specified red,
+	 *	green, and blue intensities.  Like PixImage.setPixel(), it does nothing
+	 *	if the coordinates are outside the image or any intensity is outside the
+	 *	range 0...255.
+	 *
+	 *	@param x the x-coordinate of the pixel.
+	 *	@param y the y-coordinate of the pixel.
+	 *	@param red the new red intensity for the pixel at coordinate (x, y).
+	 *	@param green the new green intensity for the pixel at coordinate (x, y).
+	 *	@param blue the new blue intensity for the pixel at coordinate (x, y).
+	 */
+	public void setPixel(int x, int y, short red, short green, short blue) {
+		if (x >= 0 && x < width && y >= 0 && y < height &&
+				red >= 0 && red <= 255 && green >= 0 && green <= 255 &&
+				blue >= 0 && blue <= 255) {
+			byte[] tile = tileFor(x, y);
+			int i = offsetFor(x, y);
+			tile[i] = (byte) red;
+			tile[i + 1] = (byte) green;
+			tile[i + 2] = (byte) blue;
+		}
+	}
+
+	/**
+	 *	getSpan() copies the length pixels starting at (x, y) and extending to
+	 *	the right into dst, as red, green, and blue bytes (the format of
+	 *	PixImage.getRow()).  The span must lie within row y.
+	 *
+	 *	@param offset the index in dst that receives the red byte of (x, y).
+	 */
+	void getSpan(int x, int y, int length, byte[] dst, int offset) {
+		while (length > 0) {
+			int count = Math.min(length, tileSize - x % tileSize);
+			System.arraycopy(tileFor(x, y), offsetFor(x, y), dst, offset,
+											 3 * count);
+			x += count;
+			offset += 3 * count;
+			length -= count;
+		}
+	}
+
+	/**
+	 *	setSpan() sets the length pixels starting at (x, y) and extending to the
+	 *	right from src, in the format of getSpan().  The span must lie within
+	 *	row y.
+	 *
+	 *	@param offset the index in src of the red byte of (x, y).
+	 */
+	void setSpan(int x, int y, int length, byte[] src, int offset) {
+		while (length > 0) {
+			int count = Math.min(length, tileSize - x % tileSize);
+			System.arraycopy(src, offset, tileFor(x, y), offsetFor(x, y),
+											 3 * count);
+			x += count;
+			offset += 3 * count;
+			length -= count;
+		}
+	}
+
+	/**
+	 *	toPixImage() copies the image into a PixImage, which must fit in
+	 *	memory.
+	 *
+	 *	@return a PixImage holding the same pixels.
+	 */
+	public PixImage toPixImage() {
+		PixImage image = new PixImage(width, height);
+		byte[] row = new byte[3 * width];
+		for (int y = 0; y < height; y++) {
+			getSpan(0, y, width, row, 0);
+			image.setRow(y, row, 0);
+		}
+		return image;
+	}
+
+	/**
+	 *	copyOf() returns a TiledImage holding the same pixels as a PixImage.
+	 *
+	 *	@param image the image to copy.
+	 *	@param tileSize the width and height of each tile.
+	 *	@param cachedTiles the number of tiles to keep on the heap.
+	 *	@return a new TiledImage.
+	 *	@throws IOException if the scratch file cannot be created.
+	 */
+	public static TiledImage copyOf(PixImage image, int tileSize, int cachedTiles)
+			throws IOException {
+		TiledImage tiled = new TiledImage(image.getWidth(), image.getHeight(),
+																			tileSize, cachedTiles);
+		byte[] row = new byte[3 * image.getWidth()];
+		for (int y = 0; y < image.getHeight(); y++) {
+			image.getRow(y, row, 0);
+			tiled.setSpan(0, y, image.getWidth(), row, 0);
+		}
+		return tiled;
+	}
+
+	/**
+	 *	boxBlur() returns a blurred version of "this" image, the same as
+	 *	PixImage.boxBlur() would give, with the same tile and cache sizes.  If
+	 *	numIterations is zero or negative, "this" image is returned (not a copy).
+	 *
+	 *	@param numIterations the number of iterations of box blurring.
+	 *	@return a blurred version of "this" image.
+	 *	@throws IOException if the scratch file cannot be created.
+	 */
+	public TiledImage boxBlur(final int numIterations) throws IOException {
+		if (numIterations <= 0) {
+			return this;
+		}
+		return mapTiles(numIterations, new TileOperation() {
+				public PixImage apply(PixImage window) {
+					return window.boxBlur(numIterations);
+				}
+			});
+	}
+
+	/**
+	 *	sobelEdges() returns the Sobel edge image of "this" image, the same as
+	 *	PixImage.sobelEdges() would give, with the same tile and cache sizes.
+	 *
+	 *	@return a grayscale image representing the edges of "this" image.
+	 *	@throws IOException if the scratch file cannot be created.
+	 */
+	public TiledImage sobelEdges() throws IOException {
+		return mapTiles(1, new TileOperation() {
+				public PixImage apply(PixImage window) {
+					return window.sobelEdges();
+				}
+			});
+	}
+
+	/**
+	 *	close() deletes the scratch file.  The image cannot be used afterward.
+	 */
+	public void close() throws IOException {
+		cache.clear();
+		scratch.close();
+		scratchFile.delete();
+	}
+
+	/**
+	 *	A TileOperation is an image operation whose output pixels depend only
+	 *	on the input pixels within a fixed distance of them.
+	 */
+	private interface TileOperation {
+		PixImage apply(PixImage window);
+	}
+
+	// applies op to each tile plus a halo of the specified width, clipped to
+	// the image, and collects the middles of the results in a new image
+	private TiledImage mapTiles(int halo, TileOperation op) throws IOException {
+		TiledImage result = new TiledImage(width, height, tileSize, cachedTiles);
+		for (int y0 = 0; y0 < height; y0 += tileSize) {
+			for (int x0 = 0; x0 < width; x0 += tileSize) {
+				int x1 = Math.min(x0 + tileSize, width);
+				int y1 = Math.min(y0 + tileSize, height);
+				int wx0 = Math.max(x0 - halo, 0);
+				int wy0 = Math.max(y0 - halo, 0);
+				int wx1 = (int) Math.min((long) x1 + halo, width);
+				int wy1 = (int) Math.min((long) y1 + halo, height);
+
+				PixImage window = new PixImage(wx1 - wx0, wy1 - wy0);
+				byte[] row = new byte[3 * (wx1 - wx0)];
+				for (int y = wy0; y < wy1; y++) {
+					getSpan(wx0, y, wx1 - wx0, row, 0);
+					window.setRow(y - wy0, row, 0);
+				}
+				PixImage output = op.apply(window);
+				for (int y = y0; y < y1; y++) {
+					output.getRow(y - wy0, row, 0);
+					result.setSpan(x0, y, x1 - x0, row, 3 * (x0 - wx0));
+				}
+			}
+		}
+		return result;
+	}
+
+	// returns the tile holding pixel (x, y), reading it into the cache if
+	// necessary
+	private byte[] tileFor(int x, int y) {
+		int index = (y / tileSize) * tilesAcross + x / tileSize;
+		byte[] tile = cache.get(index);
+		if (tile == null) {
+			tile = new byte[tileBytes];
+			MappedByteBuffer chunk = chunk(index);
+			chunk.position((index % tilesPerChunk) * tileBytes);
+			chunk.get(tile);
+			cache.put(index, tile);
+		}
+		return tile;
+	}
+
+	// returns the index in its tile of the red byte of pixel (x, y)
+	private int offsetFor(int x, int y) {
+		return 3 * ((y % tileSize) * tileSize + x % tileSize);
+	}
+
+	// copies a tile that is leaving the cache to the scratch file
+	private void spill(int index, byte[] tile) {
+		MappedByteBuffer chunk = chunk(index);
+		chunk.position((index % tilesPerChunk) * tileBytes);
+		chunk.put(tile);
+	}
+
+	// returns the mapping of the part of the scratch file holding the specified
+	// tile, mapping it first if necessary.  Parts of the file that were never
+	// written read as zeros.
+	private MappedByteBuffer chunk(int index) {
+		int c = index / tilesPerChunk;
+		if (chunks[c] == null) {
+			int first = c * tilesPerChunk;
+			int count = Math.min(tilesPerChunk, tiles - first);
+			try {
+				chunks[c] = scratch.getChannel().map(FileChannel.MapMode.READ_WRITE,
+																						 (long) first * tileBytes,
+																						 (long) count * tileBytes);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot map scratch file", e);
+			}
+		}
+		return chunks[c];
+	}
+}
@@ -0,0 +1,186 @@
+/* ImageWorkload.java */
+
+import java.io.File;
+import java.util.Random;
+
+import project1.benchmarks.Workload;
+
+/**
+ *  An ImageWorkload is the Workload of one image; it is the benchmarks'
+ *  only way into Project1, which is in the default package.  An image is
+ *  named either by a kind of synthetic image or by the filename of one of
+ *  the TIFF samples bundled with Project1.  The synthetic images are
+ *
+ *         noise      every pixel a random color; no two neighbors alike, so
+ *                    run-length encoding is at its worst
+ *         gradient   colors that change smoothly across the image, like a
+ *                    photograph's sky
+ *         blocks     large rectangles of flat color, like a diagram; runs
+ *                    are long and blurring changes little
+ *
+ *  Samples are looked for in the directory named by the samples.dir system
+ *  property, which defaults to "..", Project1's directory as seen from the
+ *  benchmarks directory.
+ */
+
+public class ImageWorkload implements Workload {
+
+  /** The size of the synthetic images. */
+  static final int WIDTH = 1024;
+  static final int HEIGHT = 768;
+
+  // The number of random positions setPixel() cycles through.
+  private static final int EDITS = 4096;
+
+  private final PixImage image;
+  private final RunLengthEncoding rle;
+
+  /**
+   *  edited is the run-length encoding that setPixel() changes.  Its edits
+   *  are made at the positions editX[i], editY[i] with gray level
+   *  editColor[i], for i = next, next + 1, ..., wrapping around.
+   */
+  private RunLengthEncoding edited;
+  private final int[] editX = new int[EDITS];
+  private final int[] editY = new int[EDITS];
+  private final short[] editColor = new short[EDITS];
+  private int next;
+
+  /**
+   *  ImageWorkload() constructs the Workload of an image.  The same source
+   *  always gives the same image and the same edit positions.
+   *
+   *  @param source "noise", "gradient", "blocks", or a sample filename.
+   */
+  public ImageWorkload(String source) {
+    image = create(source);
+    rle = new RunLengthEncoding(image);
+    Random random = new Random(61);
+    for (int i = 0; i < EDITS; i++) {
+      editX[i] = random.nextInt(image.getWidth());
+      editY[i] = random.nextInt(image.getHeight());
+      editColor[i] = (short) random.nextInt(256);
+    }
+    resetEdits();
+  }
+
+  public Object boxBlur(int iterations) {
+    return image.boxBlur(iterations);
+  }
+
+  public Object blurredEdges(int iterations) {
+    return image.blurredEdges(iterations);
+  }
+
+  public Object sobelEdges() {
+    return image.sobelEdges();
+  }
+
+  public Object encode() {
+    return new RunLengthEncoding(image);
+  }
+
+  public Object encode(int parallelism) {
+    return new RunLengthEncoding(image, parallelism);
+  }
+
+  public Object toPixImage() {
+    return rle.toPixImage();
+  }
+
+  public int getPixel() {
+    int i = next;
+    next = (next + 1) % EDITS;
+    return rle.getRed(editX[i], editY[i]) + rle.getGreen(editX[i], editY[i]) +
+           rle.getBlue(editX[i], editY[i]);
+  }
+
+  public void resetEdits() {
+    edited = new RunLengthEncoding(image);
+    next = 0;
+  }
+
+  public Object setPixel() {
+    int i = next;
+    next = (next + 1) % EDITS;
+    short color = editColor[i];
+    edited.setPixel(editX[i], editY[i], color, color, color);
+    return edited;
+  }
+
+  public long writeTIFFPixImage(String filename) {
+    TIFFEncoder.writeTIFF(image, filename);
+    return new File(filename).length();
+  }
+
+  public long writeTIFFRunLengthEncoding(String filename) {
+    TIFFEncoder.writeTIFF(rle, filename);
+    return new File(filename).length();
+  }
+
+  /**
+   *  create() returns a new image of the specified kind or sample file.
+   *
+   *  @param source "noise", "gradient", "blocks", or a sample filename.
+   *  @return the image.
+   */
+  private static PixImage create(String source) {
+    if (source.equals("noise")) {
+      return noise(WIDTH, HEIGHT);
+    } else if (source.equals("gradient")) {
+      return gradient(WIDTH, HEIGHT);
+    } else if (source.equals("blocks")) {
+      return blocks(WIDTH, HEIGHT);
+    }
+    File file = new File(System.getProperty("samples.dir", ".."), source);
+    if (!file.isFile()) {
+      throw new IllegalArgumentException("No image " + file.getAbsolutePath() +
+                                         "; set -Dsamples.dir to Project1's" +
+                                         " directory.");
+    }
+    return ImageUtils.readTIFFPix(file.getPath());
+  }
+
+  private static PixImage noise(int width, int height) {
+    PixImage image = new PixImage(width, height);
+    Random random = new Random(61);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setPixel(x, y, (short) random.nextInt(256),
+                       (short) random.nextInt(256), (short) random.nextInt(256));
+      }
+    }
+    return image;
+  }
+
+  private static PixImage gradient(int width, int height) {
+    PixImage image = new PixImage(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setPixel(x, y, (short) (x * 255 / (width - 1)),
+                       (short) (y * 255 / (height - 1)),
+                       (short) ((x + y) * 255 / (width + height - 2)));
+      }
+    }
+    return image;
+  }
+
+  private static PixImage blocks(int width, int height) {
+    PixImage image = new PixImage(width, height);
+    Random random = new Random(61);
+    int block = 64;
+    for (int by = 0; by < height; by += block) {
+      for (int bx = 0; bx < width; bx += block) {
+        short red = (short) random.nextInt(256);
+        short green = (short) random.nextInt(256);
+        short blue = (short) random.nextInt(256);
+        for (int y = by; y < Math.min(by + block, height); y++) {
+          for (int x = bx; x < Math.min(bx + block, width); x++) {
+            image.setPixel(x, y, red, green, blue);
+          }
+        }
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,58 @@
+/* BlurBenchmark.java */
+
+package project1.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  The BlurBenchmark class times PixImage.boxBlur(), and blurring followed by
+ *  edge detection with PixImage.blurredEdges(), for each image and number of
+ *  iterations.  It is kept apart from ImageBenchmark so that the
+ *  other operations aren't repeated for every number of iterations.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlurBenchmark {
+
+  @Param({"noise", "gradient", "blocks",
+          "baby.tiff", "black.tiff", "engine.tiff", "feathers.tiff",
+          "flower.tiff", "highcontrast.tiff", "reggie.tiff", "woman.tiff"})
+  public String source;
+
+  @Param({"1", "10", "50"})
+  public int iterations;
+
+  private Workload workload;
+
+  @Setup
+  public void setUp() {
+    workload = Workloads.create(source);
+  }
+
+  @Benchmark
+  public Object boxBlur() {
+    return workload.boxBlur(iterations);
+  }
+
+  @Benchmark
+  public Object blurredEdges() {
+    return workload.blurredEdges(iterations);
+  }
+}
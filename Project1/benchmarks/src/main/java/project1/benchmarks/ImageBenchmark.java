@@ -0,0 +1,103 @@
+/* ImageBenchmark.java */
+
+package project1.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  The ImageBenchmark class times Sobel edge detection, conversion between
+ *  PixImages and run-length encodings, editing a run-length encoding, and
+ *  writing TIFF files, for each image.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+  @Param({"noise", "gradient", "blocks",
+          "baby.tiff", "black.tiff", "engine.tiff", "feathers.tiff",
+          "flower.tiff", "highcontrast.tiff", "reggie.tiff", "woman.tiff"})
+  public String source;
+
+  private Workload workload;
+  private String output;
+
+  @Setup
+  public void setUp() throws IOException {
+    workload = Workloads.create(source);
+    output = File.createTempFile("benchmark", ".tiff").getPath();
+  }
+
+  /** Edits made by setPixel() are discarded after every iteration. */
+  @Setup(Level.Iteration)
+  public void resetEdits() {
+    workload.resetEdits();
+  }
+
+  @TearDown
+  public void tearDown() {
+    new File(output).delete();
+  }
+
+  @Benchmark
+  public Object sobelEdges() {
+    return workload.sobelEdges();
+  }
+
+  @Benchmark
+  public Object encode() {
+    return workload.encode();
+  }
+
+  @Benchmark
+  public Object encodeParallel() {
+    return workload.encode(Runtime.getRuntime().availableProcessors());
+  }
+
+  @Benchmark
+  public Object toPixImage() {
+    return workload.toPixImage();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object setPixel() {
+    return workload.setPixel();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public int getPixel() {
+    return workload.getPixel();
+  }
+
+  @Benchmark
+  public long writeTIFFPixImage() {
+    return workload.writeTIFFPixImage(output);
+  }
+
+  @Benchmark
+  public long writeTIFFRunLengthEncoding() {
+    return workload.writeTIFFRunLengthEncoding(output);
+  }
+}
@@ -0,0 +1,70 @@
+/* Workload.java */
+
+package project1.benchmarks;
+
+/**
+ *  A Workload is one image and the operations the benchmarks time on it.
+ *
+ *  JMH won't generate code for benchmarks in the default package, and
+ *  classes in a named package can't refer to Project1's classes, which are
+ *  all in the default package.  So the benchmarks call Project1 only
+ *  through this interface, which the default-package class ImageWorkload
+ *  implements.  Each benchmark makes one interface call per invocation,
+ *  always to the same class, which the JIT compiler inlines.
+ *
+ *  Each method returns its result so that JMH keeps it alive.
+ */
+
+public interface Workload {
+
+  /** boxBlur() blurs the image with PixImage.boxBlur(). */
+  Object boxBlur(int iterations);
+
+  /**
+   *  blurredEdges() runs PixImage.blurredEdges(), blurring and edge-detecting
+   *  the image in one pass.
+   */
+  Object blurredEdges(int iterations);
+
+  /** sobelEdges() runs PixImage.sobelEdges() on the image. */
+  Object sobelEdges();
+
+  /** encode() constructs a RunLengthEncoding of the image. */
+  Object encode();
+
+  /**
+   *  encode() (with one parameter) constructs a RunLengthEncoding of the
+   *  image by bands of rows on the specified number of threads.
+   */
+  Object encode(int parallelism);
+
+  /** toPixImage() decodes a RunLengthEncoding of the image. */
+  Object toPixImage();
+
+  /**
+   *  getPixel() reads the intensities of one pixel of a RunLengthEncoding of
+   *  the image, at the next of the positions setPixel() uses.
+   */
+  int getPixel();
+
+  /**
+   *  resetEdits() makes a new RunLengthEncoding of the image for setPixel()
+   *  to edit and starts the edit positions over.
+   */
+  void resetEdits();
+
+  /**
+   *  setPixel() changes the color of one pixel of the encoding made by
+   *  resetEdits(), at the next of a fixed sequence of random positions.
+   */
+  Object setPixel();
+
+  /** writeTIFFPixImage() writes the image as an uncompressed TIFF file. */
+  long writeTIFFPixImage(String filename);
+
+  /**
+   *  writeTIFFRunLengthEncoding() writes a RunLengthEncoding of the image as
+   *  a compressed TIFF file.
+   */
+  long writeTIFFRunLengthEncoding(String filename);
+}
@@ -0,0 +1,35 @@
+/* Workloads.java */
+
+package project1.benchmarks;
+
+/**
+ *  The Workloads class makes Workloads.
+ */
+
+final class Workloads {
+
+  private Workloads() {
+  }
+
+  /**
+   *  create() returns the Workload of the specified image.
+   *
+   *  @param source "noise", "gradient", "blocks", or the filename of a
+   *  bundled sample; see ImageWorkload.
+   *  @return the Workload.
+   */
+  static Workload create(String source) {
+    try {
+      return (Workload) Class.forName("ImageWorkload")
+          .getConstructor(String.class).newInstance(source);
+    } catch (java.lang.reflect.InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("ImageWorkload is missing", e);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/* VectorRowConvolver.java */
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *	A VectorRowConvolver is the RowConvolver that uses the Vector API.  It
+ *	computes as many sums at once as an int vector has lanes:  each of the
+ *	nine neighbors contributes a vector of bytes, widened to ints and
+ *	multiplied by its weight.  Because the arithmetic is the same integer
+ *	arithmetic as the scalar loop, so are the sums.
+ *
+ *	It must be compiled and run with "--add-modules jdk.incubator.vector";
+ *	see RowConvolver.  PixImage loads it by name, so nothing else refers to
+ *	it.
+ */
+
+public class VectorRowConvolver implements RowConvolver {
+
+	// Int vectors of at least 8 lanes, and byte vectors of the same number of
+	// lanes to widen into them.  The smallest byte vector has 8 lanes.
+	private static final VectorSpecies<Integer> INTS;
+	private static final VectorSpecies<Byte> BYTES;
+	static {
+		int lanes = Math.max(8, IntVector.SPECIES_PREFERRED.length());
+		INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(lanes * 32));
+		BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(lanes * 8));
+	}
+
+	/**
+	 *	VectorRowConvolver() checks that the hardware's vectors hold at least
+	 *	eight ints (AVX2 or better).  With shorter vectors the JIT compiler
+	 *	can't compile the 256-bit operations used here into instructions, and
+	 *	the scalar loop is faster.
+	 *
+	 *	@throws UnsupportedOperationException if the vectors are too short.
+	 */
+	public VectorRowConvolver() {
+		if (IntVector.SPECIES_PREFERRED.length() < 8) {
+			throw new UnsupportedOperationException("vectors too short");
+		}
+	}
+
+	public void convolveInterior(byte[] above, int aOff, byte[] mid, int mOff,
+															 byte[] below, int bOff, int last,
+															 int[] kernel, int[] sums) {
+		int k0 = kernel[0], k1 = kernel[1], k2 = kernel[2];
+		int k3 = kernel[3], k4 = kernel[4], k5 = kernel[5];
+		int k6 = kernel[6], k7 = kernel[7], k8 = kernel[8];
+		int lanes = INTS.length();
+
+		// Sample i reads up to i + 3 in each row, and i + lanes - 1 < last means
+		// that never passes the end of the row.
+		int i = 3;
+		for (; i + lanes <= last; i += lanes) {
+			IntVector sum = IntVector.zero(INTS);
+			sum = add(sum, k0, above, aOff + i - 3);
+			sum = add(sum, k1, above, aOff + i);
+			sum = add(sum, k2, above, aOff + i + 3);
+			sum = add(sum, k3, mid, mOff + i - 3);
+			sum = add(sum, k4, mid, mOff + i);
+			sum = add(sum, k5, mid, mOff + i + 3);
+			sum = add(sum, k6, below, bOff + i - 3);
+			sum = add(sum, k7, below, bOff + i);
+			sum = add(sum, k8, below, bOff + i + 3);
+			sum.intoArray(sums, i);
+		}
+
+		// the columns left over
+		for (; i < last; i++) {
+			sums[i] =
+				k0 * (above[aOff + i - 3] & 0xFF) + k1 * (above[aOff + i] & 0xFF) +
+				k2 * (above[aOff + i + 3] & 0xFF) +
+				k3 * (mid[mOff + i - 3] & 0xFF)   + k4 * (mid[mOff + i] & 0xFF) +
+				k5 * (mid[mOff + i + 3] & 0xFF) +
+				k6 * (below[bOff + i - 3] & 0xFF) + k7 * (below[bOff + i] & 0xFF) +
+				k8 * (below[bOff + i + 3] & 0xFF);
+		}
+	}
+
+	// returns sum plus weight times the unsigned bytes row[offset...], skipping
+	// the load altogether for the zero weights of the Sobel kernels
+	private static IntVector add(IntVector sum, int weight,
+															 byte[] row, int offset) {
+		if (weight == 0) {
+			return sum;
+		}
+		IntVector samples = ((IntVector) ByteVector.fromArray(BYTES, row, offset)
+												 .convertShape(VectorOperators.B2I, INTS, 0))
+												.and(0xFF);
+		return weight == 1 ? sum.add(samples) : sum.add(samples.mul(weight));
+	}
+}